@@ -0,0 +1,97 @@
+package org.yucs.spotter.regex;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Set;
+
+// RegexProcessor compiles the regex of every String constant annotated with @Precompile while the constant's class
+// is compiled: the regex is tokenized and compiled into a Program there, and BytecodeCompiler writes the class file of
+// the Program's PrecompiledRegex subclass next to it.  At run time the regex is then only a class to load, no
+// tokenizing or class generation happens (which also suits native images).
+//
+// The processor lives in the regex package (in a jar of its own) to reach the Tokenizer and the compilers, which
+// aren't part of the public api.
+
+@SupportedAnnotationTypes("org.yucs.spotter.regex.Precompile")
+public class RegexProcessor extends AbstractProcessor {
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (Element e : roundEnv.getElementsAnnotatedWith(Precompile.class)) {
+            Object value = (e.getKind() == ElementKind.FIELD) ? ((VariableElement) e).getConstantValue() : null;
+
+            if (!(value instanceof String)) {
+                error(e, "@Precompile has to annotate a String constant");
+                continue;
+            }
+
+            try {
+                generate(e, (String) value);
+            } catch (RegexException ex) {
+                error(e, ex.getMessage());
+            } catch (IOException ex) {
+                error(e, "Couldn't write the class of " + value + ": " + ex);
+            }
+        }
+
+        return true;
+    }
+
+    private void generate(Element e, String regex) throws RegexException, IOException {
+        Tokenizer tokenizer = new Tokenizer(regex);
+        tokenizer.tokenize();
+
+        Program program = Compiler.compile(tokenizer);
+        boolean backtracking = (program == null);
+        if (backtracking)
+            program = Compiler.compile(tokenizer, true);
+
+        if (program == null)
+            throw new RegexException("Regex " + regex + " can't be precompiled (it uses recursion)");
+
+        String pkg = processingEnv.getElementUtils().getPackageOf(e).getQualifiedName().toString();
+        String name = pkg.isEmpty() ? className(e) : pkg + "." + className(e);
+
+        byte[] bytes;
+        try {
+            bytes = BytecodeCompiler.classFile(program, name.replace('.', '/'), regex, backtracking);
+        } catch (RegexException ex) {
+            throw new RegexException("Regex " + regex + " can't be precompiled: " + ex.getMessage());
+        }
+
+        try (OutputStream out = processingEnv.getFiler().createClassFile(name, e).openOutputStream()) {
+            out.write(bytes);
+        }
+    }
+
+    // the name in the annotation, or the names of the classes around the constant and its own joined by _
+    private static String className(Element e) {
+        String name = e.getAnnotation(Precompile.class).value();
+        if (!name.isEmpty())
+            return name;
+
+        StringBuilder sb = new StringBuilder(e.getSimpleName());
+        for (Element c = e.getEnclosingElement(); c.getKind() != ElementKind.PACKAGE; c = c.getEnclosingElement()) {
+            sb.insert(0, c.getSimpleName() + "_");
+        }
+
+        return sb.toString();
+    }
+
+    private void error(Element e, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, e);
+    }
+}
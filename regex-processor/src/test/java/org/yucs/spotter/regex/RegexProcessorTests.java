@@ -0,0 +1,122 @@
+package org.yucs.spotter.regex;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeNotNull;
+
+public class RegexProcessorTests {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void needsJavaCompiler() {
+        assumeNotNull(ToolProvider.getSystemJavaCompiler());
+    }
+
+    // compiles the source of class name with the RegexProcessor into the temporary folder
+    private boolean compile(String name, final String source) {
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        JavaFileObject file = new SimpleJavaFileObject(URI.create("string:///" + name.replace('.', '/') + ".java"),
+                JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+
+        JavaCompiler.CompilationTask task = javac.getTask(null, null, null,
+                Arrays.asList("-d", folder.getRoot().getPath(), "-s", folder.getRoot().getPath(),
+                        "-classpath", System.getProperty("java.class.path")),
+                null, Collections.singletonList(file));
+        task.setProcessors(Collections.singletonList(new RegexProcessor()));
+
+        return task.call();
+    }
+
+    private Class<?> load(String name) throws Exception {
+        ClassLoader loader = new URLClassLoader(new URL[] { folder.getRoot().toURI().toURL() },
+                getClass().getClassLoader());
+        return loader.loadClass(name);
+    }
+
+    @Test
+    public void precompiled() throws Exception {
+        String[] regexes = { "(\\w+)@(\\w+)\\.com", "(\\w+)\\s\\1", "(?<=id=)(\\d+)(?!\\d)", "^(a|ab)(c|bcd)(d*)$",
+                "\"\n\\\\" };
+
+        StringBuilder source = new StringBuilder("package p;\n\nclass Patterns {\n");
+        for (int i = 0; i < regexes.length; i++) {
+            source.append("    @org.yucs.spotter.regex.Precompile static final String R").append(i).append(" = \"")
+                    .append(regexes[i].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+                    .append("\";\n");
+        }
+        source.append("    @org.yucs.spotter.regex.Precompile(\"Named\") static final String NAMED = \"a+\";\n");
+        // the generated classes can be used in the sources they are generated from
+        source.append("    static final org.yucs.spotter.regex.Regex NAMED_REGEX =\n");
+        source.append("            new org.yucs.spotter.regex.Regex(new Named());\n");
+        source.append("}\n");
+
+        assertTrue(compile("p.Patterns", source.toString()));
+
+        String[] texts = { "", "mail bob@example.com", "it is is here", "id=42;", "id=x", "abcd", "abcdd", "ab",
+                "\"\n\\", "x\"\n\\\\" };
+
+        for (int i = 0; i < regexes.length; i++) {
+            PrecompiledRegex compiled = (PrecompiledRegex) load("p.Patterns_R" + i).newInstance();
+            Matcher precompiled = new Regex(compiled).Matcher();
+            Matcher tokenized = new Regex(regexes[i]).Matcher();
+
+            for (String text : texts) {
+                assertEquals(regexes[i] + " " + text, tokenized.match(text), precompiled.match(text));
+                assertEquals(regexes[i] + " " + text, tokenized.getGroups(), precompiled.getGroups());
+            }
+        }
+
+        assertTrue(new Regex((PrecompiledRegex) load("p.Named").newInstance()).match("baac"));
+    }
+
+    @Test
+    public void longText() throws Exception {
+        assertTrue(compile("p.Long", "package p;\n\nclass Long {\n" +
+                "    @org.yucs.spotter.regex.Precompile static final String WORDS = \"(a|b)*c\";\n}\n"));
+
+        char[] text = new char[10000];
+        Arrays.fill(text, 'a');
+        text[text.length - 1] = 'c';
+
+        // too long for the memo, the linear engines match it
+        Regex regex = new Regex((PrecompiledRegex) load("p.Long_WORDS").newInstance());
+        regex.setBacktrackMemoSize(16);
+        Matcher m = regex.Matcher();
+        assertTrue(m.match(new String(text)));
+        assertEquals("a", m.getGroup(1));
+    }
+
+    @Test
+    public void errors() {
+        assertFalse(compile("p.NotConstant", "package p;\n\nclass NotConstant {\n" +
+                "    @org.yucs.spotter.regex.Precompile static final String R = new String(\"a\");\n}\n"));
+        assertFalse(compile("p.Invalid", "package p;\n\nclass Invalid {\n" +
+                "    @org.yucs.spotter.regex.Precompile static final String R = \"(a\";\n}\n"));
+
+        char[] large = new char[1000];
+        Arrays.fill(large, 'a');
+        assertFalse(compile("p.Large", "package p;\n\nclass Large {\n" +
+                "    @org.yucs.spotter.regex.Precompile static final String R = \"" + new String(large) + "\";\n}\n"));
+    }
+}
@@ -0,0 +1,198 @@
+package org.yucs.spotter.regex;
+
+import java.util.Arrays;
+import java.util.List;
+
+// AhoCorasick looks up the literals of an alternation of literals (ex: GET|POST|PUT, or a blocklist of thousands of
+// words) in a trie, where each node stands for the text read from the root to it.
+// - lengths() follows the trie from a position of the text, the literals it goes through are the alternates that
+//   match there, which NormalExpressionToken then tries in the order of the alternation
+// - next() finds where the first of them starts in a single pass over the text: when the text doesn't continue the
+//   current node, it follows the node's failure link to the longest suffix of its text that is in the trie instead
+//   of going back in the text
+//
+// The children of all the nodes are in a single open addressing hash table, keyed by the node and the character.
+
+final class AhoCorasick {
+    private static final int[] NONE = new int[0];
+
+    private final long[] keys; // node << 16 | character, -1 for a free slot
+    private final int[] targets;
+    private final int mask;
+
+    private final int[] literal; // the first literal that ends at the node, -1 if none
+    private final int[] depth;
+    private final int[] fail;
+    private final int[] output; // the deepest node on the failure links that ends a literal, -1 if none
+    private final int maxLength;
+
+    AhoCorasick(List<String> literals) {
+        int chars = 0;
+        for (String s : literals) {
+            chars += s.length();
+        }
+
+        // there are at most as many nodes (and edges) as characters, the table is kept at most half full
+        int capacity = Integer.highestOneBit(Math.max(2 * chars, 1)) * 2;
+        keys = new long[capacity];
+        Arrays.fill(keys, -1);
+        targets = new int[capacity];
+        mask = capacity - 1;
+
+        int[] parent = new int[chars + 1];
+        char[] edge = new char[chars + 1];
+        int[] ends = new int[chars + 1];
+        int[] depths = new int[chars + 1];
+        ends[0] = -1;
+        int size = 1;
+
+        int max = 0;
+        for (int i = 0; i < literals.size(); i++) {
+            String s = literals.get(i);
+            int node = 0;
+            for (int j = 0; j < s.length(); j++) {
+                int child = child(node, s.charAt(j));
+                if (child == -1) {
+                    child = size++;
+                    parent[child] = node;
+                    edge[child] = s.charAt(j);
+                    ends[child] = -1;
+                    depths[child] = j + 1;
+                    put(node, s.charAt(j), child);
+                }
+                node = child;
+            }
+
+            // a literal that comes again after itself can never be the one that matches
+            if (ends[node] == -1)
+                ends[node] = i;
+            max = Math.max(max, s.length());
+        }
+
+        literal = Arrays.copyOf(ends, size);
+        depth = Arrays.copyOf(depths, size);
+        maxLength = max;
+
+        // the failure link of a node is the node its parent's failure link continues to with the node's character,
+        // so the nodes are linked by increasing depth
+        int[] byDepth = new int[size];
+        int[] count = new int[max + 2];
+        for (int node = 0; node < size; node++) {
+            count[depth[node] + 1]++;
+        }
+        for (int d = 1; d < count.length; d++) {
+            count[d] += count[d - 1];
+        }
+        for (int node = 0; node < size; node++) {
+            byDepth[count[depth[node]]++] = node;
+        }
+
+        fail = new int[size];
+        output = new int[size];
+        output[0] = -1;
+        for (int node : byDepth) {
+            if (node == 0)
+                continue;
+
+            int f = (depth[node] == 1) ? 0 : step(fail[parent[node]], edge[node]);
+            fail[node] = f;
+            output[node] = (literal[f] != -1) ? f : output[f];
+        }
+    }
+
+    private int slot(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+    }
+
+    private void put(int node, char c, int child) {
+        long key = ((long) node << 16) | c;
+        int i = slot(key);
+        while (keys[i] != -1) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        targets[i] = child;
+    }
+
+    // the child of node for c, -1 if there is none
+    private int child(int node, char c) {
+        long key = ((long) node << 16) | c;
+        for (int i = slot(key); keys[i] != -1; i = (i + 1) & mask) {
+            if (keys[i] == key)
+                return targets[i];
+        }
+
+        return -1;
+    }
+
+    private int step(int node, char c) {
+        while (true) {
+            int child = child(node, c);
+            if (child != -1)
+                return child;
+            if (node == 0)
+                return 0;
+            node = fail[node];
+        }
+    }
+
+    /**
+     * @return the lengths of the literals that text has at pos, in the order of the literals
+     */
+    int[] lengths(String text, int pos) {
+        int[] found = NONE;
+        int n = 0;
+
+        int node = 0;
+        for (int i = pos; node != -1; i++) {
+            if (literal[node] != -1) {
+                if (n == found.length)
+                    found = new int[maxLength + 1];
+
+                // insertion sort by literal, there are only as many as the longest literal is long
+                int j = n++;
+                for (; j > 0 && literal[found[j - 1]] > literal[node]; j--) {
+                    found[j] = found[j - 1];
+                }
+                found[j] = node;
+            }
+
+            node = (i < text.length()) ? child(node, text.charAt(i)) : -1;
+        }
+
+        int[] ret = new int[n];
+        for (int i = 0; i < n; i++) {
+            ret[i] = depth[found[i]];
+        }
+
+        return ret;
+    }
+
+    /**
+     * @return the first position from pos on where one of the literals starts in text, -1 if there is none
+     */
+    int next(String text, int pos) {
+        if (literal[0] != -1)
+            return pos;
+
+        int node = 0;
+        int best = -1;
+        for (int i = pos; i < text.length(); i++) {
+            // a literal that starts before best would have ended by now
+            if (best != -1 && i >= best + maxLength - 1)
+                break;
+
+            node = step(node, text.charAt(i));
+
+            // the deepest literal ending here starts the earliest
+            int out = (literal[node] != -1) ? node : output[node];
+            if (out != -1) {
+                int start = i + 1 - depth[out];
+                if (best == -1 || start < best)
+                    best = start;
+            }
+        }
+
+        return best;
+    }
+}
@@ -1,5 +1,7 @@
 package org.yucs.spotter.regex;
 
+import java.util.List;
+
 // Anchor Tokens make sure the position we are in the text corresponds to some rule
 // ^ - we are at text_pos = 0,
 // $ - we have text_pos = text.length() (i.e. one beyond the last character, aka matched everything in text)
@@ -15,41 +17,80 @@ class AnchorToken extends Token {
 
     @Override
     boolean match(Matcher m) throws RegexException {
-        String text = m.getText();
-        int text_pos = m.getTextPosition();
+        return holds(anchor, m.getText(), m.getTextPosition()) && next.match(m);
+    }
+
+    @Override
+    void compile(Compiler c) throws RegexException {
+        c.emit(Program.ASSERT, 0, 0, anchor, null);
+    }
+
+    // doesn't consume any text, the match starts with what follows it
+    @Override
+    boolean first(CharSet set) {
+        return next.first(set);
+    }
 
+    @Override
+    AhoCorasick literals() {
+        return next.literals();
+    }
+
+    @Override
+    boolean anchors(char anchor) {
+        return this.anchor == anchor || next.anchors(anchor);
+    }
+
+    @Override
+    int minLength() {
+        return next.minLength();
+    }
+
+    @Override
+    int maxLength() {
+        return next.maxLength();
+    }
+
+    // doesn't consume any text, the characters around it are next to each other
+    @Override
+    void required(StringBuilder run, List<String> runs) {
+        next.required(run, runs);
+    }
+
+    // shared with the Program based engines, which evaluate the anchor without a Matcher
+    static boolean holds(char anchor, String text, int text_pos) throws RegexException {
         switch (anchor) {
             case '$': // end of text anchor, continues matching as can e a lookbehind at this point
-                return text_pos == text.length() && next.match(m);
+                return text_pos == text.length();
 
             case '^': // start of text anchor
-                return 0 == text_pos && next.match(m);
+                return 0 == text_pos;
 
             case 'b': // word break anchor
-            case 'B': { // negative word break anchors
-                boolean negative = false;
-                if (anchor == 'B')
-                    negative = true;
-
-                if (text_pos == 0) {
-                    if (Character.isAlphabetic(text.charAt(text_pos)))
-                        return !negative && next.match(m);
-                } else if (text_pos == text.length()) {
-                    if (Character.isAlphabetic(text.charAt(text_pos - 1))) {
-                        return !negative && next.match(m);
-                    }
-                } else {
-                    if ((Character.isWhitespace(text.charAt(text_pos - 1)) && Character.isAlphabetic(text.charAt(text_pos))) ||
-                            (Character.isWhitespace(text.charAt(text_pos)) && Character.isAlphabetic(text.charAt(text_pos - 1)))) {
-                        return !negative && next.match(m);
-                    }
-                }
-
-                return negative && next.match(m);
-            }
+            case 'B': // negative word break anchors
+                boolean wordBreak = wordBreak(text_pos == 0 ? -1 : text.charAt(text_pos - 1),
+                        text_pos == text.length() ? -1 : text.charAt(text_pos));
+
+                return wordBreak == (anchor == 'b');
 
             default:
                 throw new RegexException("Unexpected ANCHOR token: " + anchor);
         }
     }
-}
\ No newline at end of file
+
+    // is there a word break between the characters before and after a text position (-1 before the start of the text
+    // and after its end)
+    static boolean wordBreak(int before, int after) {
+        if (before == -1 && after == -1)
+            return false;
+
+        if (before == -1)
+            return Character.isAlphabetic(after);
+
+        if (after == -1)
+            return Character.isAlphabetic(before);
+
+        return (Character.isWhitespace(before) && Character.isAlphabetic(after)) ||
+                (Character.isWhitespace(after) && Character.isAlphabetic(before));
+    }
+}
@@ -1,7 +1,6 @@
 package org.yucs.spotter.regex;
 
 import java.util.Iterator;
-import java.util.Stack;
 
 /*
  * AtomicGroups are alternates where if an alternate matches, even if it fails later, the rest aren't tried, i.e. no
@@ -17,7 +16,7 @@ class AtomicExpressionToken extends ExpressionToken {
         while (it.hasNext()) {
             // We do this, as we only want to test a single alternate at a time,
 
-            Stack<Token> savedStack = m.saveAndResetNextStack();
+            Continuation savedStack = m.saveAndResetNextStack();
 
             Token t = it.next();
 
@@ -36,4 +35,9 @@ class AtomicExpressionToken extends ExpressionToken {
 
         return false;
     }
+
+    @Override
+    void compile(Compiler c) throws RegexException {
+        c.atomic(altIterator());
+    }
 }
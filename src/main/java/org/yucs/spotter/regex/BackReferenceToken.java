@@ -13,6 +13,11 @@ class BackReferenceToken extends Token {
         backreference = val;
     }
 
+    @Override
+    int captureGroup() {
+        return backreference;
+    }
+
     @Override
     boolean match(Matcher m) throws RegexException {
         if (m.getDirection() != -1) {
@@ -22,43 +27,57 @@ class BackReferenceToken extends Token {
         return reverseMatch(m);
     }
 
+    // the capture is compared with the text where it is, without making a String of it
     private boolean forwardMatch(Matcher m) throws RegexException {
         String text = m.getText();
         int text_pos = m.getTextPosition();
-        String stored = m.getGroup(backreference);
+        int start = captureStart(m);
 
-        if (stored == null) // TODO: unsure this is correct, maybe its an automatic and continue to next match
+        if (start == -1) // TODO: unsure this is correct, maybe its an automatic and continue to next match
             return false;
 
-        for(int i=0; i < stored.length(); i++) {
-            if (text_pos >= text.length() || stored.charAt(i) != text.charAt(text_pos)) {
-                return false;
-            }
-            text_pos++;
-        }
+        int length = m.groupEnd(backreference) - start;
+        if (!text.regionMatches(text_pos, text, start, length))
+            return false;
 
-        m.setTextPosition(text_pos);
+        m.setTextPosition(text_pos + length);
 
         return next.match(m);
     }
 
+    @Override
+    void compile(Compiler c) throws RegexException {
+        c.backReference(backreference);
+    }
+
+    // in a look behind the capture ends where the text position is
     private boolean reverseMatch(Matcher m) throws RegexException {
         String text = m.getText();
-        int text_pos = m.getTextPosition() - 1;
-        String stored = m.getGroup(backreference);
+        int start = captureStart(m);
 
-        if (stored == null) // TODO: unsure this is correct, maybe its an automatic and continue to next match
+        if (start == -1) // TODO: unsure this is correct, maybe its an automatic and continue to next match
             return false;
 
-        for(int i=stored.length() -1; i >= 0; i--) {
-            if (text_pos < 0 || stored.charAt(i) != text.charAt(text_pos)) {
-                return false;
-            }
-            text_pos--;
-        }
+        int length = m.groupEnd(backreference) - start;
+        int text_pos = m.getTextPosition() - length;
+        if (text_pos < 0 || !text.regionMatches(text_pos, text, start, length))
+            return false;
 
         m.setTextPosition(text_pos);
 
         return next.match(m);
     }
-}
\ No newline at end of file
+
+    private int captureStart(Matcher m) throws RegexException {
+        if (backreference >= m.groupCount())
+            throw new RegexException("Group " + backreference + " does not exit");
+
+        return m.groupStart(backreference);
+    }
+
+    // the group can have captured the empty string
+    @Override
+    int minLength() {
+        return next.minLength();
+    }
+}
@@ -0,0 +1,401 @@
+package org.yucs.spotter.regex;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+// Backtracker runs a Program the way the Token graph is matched: one alternate at a time, in priority order, going
+// back to the last untried alternate when a path fails.  Unlike the automaton engines it can run back references,
+// atomic groups and look arounds, so it runs every regex that compiles (all but recursion) with a single loop over
+// the instructions instead of calls between Tokens.
+//
+// The alternates left to try are kept on an explicit, growable stack (with the slot values to restore when going
+// back), so a deep match uses heap memory instead of java stack frames, and the stack is reused by the following
+// searches.  A MARK remembers the stack height in a register, the CUT that goes with it drops the alternates pushed
+// since then, keeping the slot values to restore, which is how atomic groups and possessive quantifiers give up
+// their alternates.  Look arounds are atomic too, they REWIND to the position they started from once matched.
+//
+// When the text is short enough (the Program size times the text length fits in maxMemo bytes), a bit per
+// (instruction, text position) remembers the states that were already tried.  As the first path that matches ends the
+// search, reaching a state a second time means it already failed, so it's skipped.  That bounds the work by the
+// Program size times the text length.  The states are remembered across the start positions: a start that runs into
+// the states of an earlier one (ex: \w+@example\.com on a long word without @) stops right away instead of scanning
+// the same characters again.
+//
+// Longer texts only have the bits of a window of positions that fit in maxMemo bytes, from the start position on,
+// which is what the following starts run into.  The window slides along with the start position once it is half
+// way through it, the states behind it are forgotten.  A word like the one above then takes a scan of the word per
+// half window instead of one per start.  Without any memory the search can take exponential time, like the Token
+// graph.
+//
+// Only the states that can be reached in more than one way are remembered: the instructions several others continue
+// at (or the first one, which every start continues at), and the ones after a BACKREF or a REWIND, which continue at
+// them from different positions.  A path that reaches another state a second time went through one of those first.
+//
+// A state only depends on (instruction, position) if no slot is live there, i.e. no path from the instruction reads
+// a slot (a BACKREF, a LOOP, a REPEAT, a MANDATORY or a CUT's register) before writing it (a SAVE, a MARK or a COUNT).
+// Instructions with live slots behave differently depending on what was captured (or counted) before, so those
+// states are never skipped.
+
+class Backtracker {
+    static final int DEFAULT_MAX_MEMO = 1 << 18; // bytes
+
+    private final Program prog;
+    private final boolean[] memoize;
+
+    private long[] visited = new long[0];
+    private int base; // the first position of the window that visited has the bits of
+    private int window; // the number of positions in it
+
+    // the alternates the last search went back to, which Regex keeps an eye on (see Regex.backtracked())
+    long steps;
+
+    // the jobs left to try: (pc, position), or a slot to restore (pc == -1)
+    private int[] jobPc = new int[64];
+    private int[] jobPos = new int[64];
+    private int[] jobValue = new int[64];
+    private int jobs;
+
+    Backtracker(Program prog) {
+        this.prog = prog;
+        this.memoize = memoizable(prog);
+    }
+
+    /**
+     * @return if the tried states of matching text fit in maxMemo bytes
+     */
+    static boolean fits(Program prog, String text, int maxMemo) {
+        return (long) prog.size * (text.length() + 1) <= 8L * maxMemo;
+    }
+
+    /**
+     * Finds the first match in text (trying the start positions the way Matcher does)
+     *
+     * @param slots filled with the capture group positions of the match
+     * @param maxMemo the memory in bytes the tried states may use
+     * @return if the text matched
+     */
+    boolean search(String text, int[] slots, int maxMemo) throws RegexException {
+        int len = text.length();
+        boolean[] memoize = this.memoize;
+
+        // a window that doesn't hold the whole text slides by multiples of 64 positions, which are whole words
+        base = 0;
+        window = fits(prog, text, maxMemo) ? len + 1 : (int) (8L * Math.max(maxMemo, 0) / prog.size) & ~63;
+
+        int words = (int) (((long) window * prog.size + 63) / 64);
+        if (window == 0) {
+            memoize = new boolean[prog.size];
+        } else if (visited.length < words) {
+            visited = new long[words];
+        } else {
+            Arrays.fill(visited, 0, words, 0);
+        }
+
+        Prefilter prefilter = prog.prefilter;
+        int last = prefilter.last(text);
+        int[] caps = new int[prog.slotCount];
+        steps = 0;
+
+        for (int start = prefilter.next(text, 0, last); start != -1; start = prefilter.next(text, start + 1, last)) {
+            Arrays.fill(caps, -1);
+
+            if (window <= len && start - base >= Math.max(window / 2, 64))
+                slide(start, words);
+
+            if (run(text, start, caps, memoize)) {
+                System.arraycopy(caps, 0, slots, 0, slots.length);
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    // The instruction arrays, pc and the text position are kept in locals so the JIT can keep them in registers.
+    private boolean run(String text, int start, int[] caps, boolean[] memoize) throws RegexException {
+        final int[] op = prog.op;
+        final int[] x = prog.x;
+        final int[] y = prog.y;
+        final int[] n = prog.n;
+        final CharacterClass[] cls = prog.cls;
+        final int size = prog.size;
+        final long[] visited = this.visited;
+        final int base = this.base;
+        final int window = this.window;
+        final int len = text.length();
+
+        jobs = 0;
+        push(0, start, 0);
+
+        while (jobs > 0) {
+            jobs--;
+            int pc = jobPc[jobs];
+            int pos = jobPos[jobs];
+
+            if (pc < 0) {
+                caps[pos] = jobValue[jobs];
+                continue;
+            }
+            steps++;
+
+            thread:
+            while (true) {
+                if (memoize[pc] && pos >= base && pos - base < window) {
+                    long bit = (long) (pos - base) * size + pc;
+                    if ((visited[(int) (bit >>> 6)] & (1L << bit)) != 0)
+                        break;
+                    visited[(int) (bit >>> 6)] |= 1L << bit;
+                }
+
+                switch (op[pc]) {
+                    case Program.CHAR:
+                        if (pos == len || !cls[pc].match(text.charAt(pos)))
+                            break thread;
+                        pc++;
+                        pos++;
+                        break;
+
+                    case Program.MATCH:
+                        return true;
+
+                    case Program.JMP:
+                        pc = x[pc];
+                        break;
+
+                    case Program.SPLIT:
+                        push(y[pc], pos, 0);
+                        pc = x[pc];
+                        break;
+
+                    case Program.SAVE:
+                        push(-1, n[pc], caps[n[pc]]);
+                        caps[n[pc]] = pos;
+                        pc++;
+                        break;
+
+                    case Program.LOOP:
+                        pc = (caps[n[pc]] == pos) ? y[pc] : x[pc];
+                        break;
+
+                    case Program.ASSERT:
+                        if (!AnchorToken.holds((char) n[pc], text, pos))
+                            break thread;
+                        pc++;
+                        break;
+
+                    case Program.BACKREF:
+                        int from = caps[2 * n[pc]];
+                        int to = caps[2 * n[pc] + 1];
+                        if (from == -1 || to == -1 || !text.regionMatches(pos, text, from, to - from))
+                            break thread;
+                        pos += to - from;
+                        pc++;
+                        break;
+
+                    case Program.MARK:
+                        push(-1, n[pc], caps[n[pc]]);
+                        caps[n[pc]] = jobs;
+                        pc++;
+                        break;
+
+                    case Program.CUT:
+                        cut(caps[n[pc]]);
+                        pc++;
+                        break;
+
+                    case Program.RCHAR:
+                        if (pos == 0 || !cls[pc].match(text.charAt(pos - 1)))
+                            break thread;
+                        pc++;
+                        pos--;
+                        break;
+
+                    case Program.REWIND:
+                        pos = caps[n[pc]];
+                        pc++;
+                        break;
+
+                    case Program.COUNT:
+                        push(-1, n[pc], caps[n[pc]]);
+                        caps[n[pc]] = 0;
+                        pc++;
+                        break;
+
+                    case Program.REPEAT:
+                        if (caps[n[pc]] == x[pc]) {
+                            pc = y[pc];
+                        } else {
+                            push(-1, n[pc], caps[n[pc]]);
+                            caps[n[pc]]++;
+                            pc++;
+                        }
+                        break;
+
+                    case Program.MANDATORY:
+                        pc = (caps[n[pc]] <= x[pc]) ? y[pc] : pc + 1;
+                        break;
+
+                    default: // FAIL
+                        break thread;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    // moves the window of the first words of visited to the positions from start on (rounded down to 64)
+    private void slide(int start, int words) {
+        int shift = (start - base) & ~63;
+        int shiftWords = (shift < window) ? (int) ((long) shift / 64 * prog.size) : words;
+
+        System.arraycopy(visited, shiftWords, visited, 0, words - shiftWords);
+        Arrays.fill(visited, words - shiftWords, words, 0);
+        base += shift;
+    }
+
+    // drops the alternates above height, the slot values to restore are kept
+    private void cut(int height) {
+        int top = height;
+
+        for (int i = height; i < jobs; i++) {
+            if (jobPc[i] < 0) {
+                jobPc[top] = jobPc[i];
+                jobPos[top] = jobPos[i];
+                jobValue[top] = jobValue[i];
+                top++;
+            }
+        }
+
+        jobs = top;
+    }
+
+    private void push(int pc, int pos, int value) {
+        if (jobs == jobPc.length) {
+            jobPc = Arrays.copyOf(jobPc, jobs * 2);
+            jobPos = Arrays.copyOf(jobPos, jobs * 2);
+            jobValue = Arrays.copyOf(jobValue, jobs * 2);
+        }
+
+        jobPc[jobs] = pc;
+        jobPos[jobs] = pos;
+        jobValue[jobs] = value;
+        jobs++;
+    }
+
+    // The instructions without live slots, from a backwards data flow analysis:
+    // live(pc) = read(pc) + (live(successors) - written(pc)),
+    // that can be reached in more than one way
+    static boolean[] memoizable(Program prog) {
+        BitSet[] live = new BitSet[prog.size];
+        for (int pc = 0; pc < prog.size; pc++) {
+            live[pc] = new BitSet();
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+
+            for (int pc = prog.size - 1; pc >= 0; pc--) {
+                BitSet l = new BitSet();
+
+                switch (prog.op[pc]) {
+                    case Program.JMP:
+                        l.or(live[prog.x[pc]]);
+                        break;
+                    case Program.SPLIT:
+                        l.or(live[prog.x[pc]]);
+                        l.or(live[prog.y[pc]]);
+                        break;
+                    case Program.LOOP:
+                        l.or(live[prog.x[pc]]);
+                        l.or(live[prog.y[pc]]);
+                        l.set(prog.n[pc]);
+                        break;
+                    case Program.SAVE:
+                    case Program.MARK:
+                    case Program.COUNT:
+                        l.or(live[pc + 1]);
+                        l.clear(prog.n[pc]);
+                        break;
+                    case Program.REPEAT:
+                    case Program.MANDATORY:
+                        l.or(live[pc + 1]);
+                        l.or(live[prog.y[pc]]);
+                        l.set(prog.n[pc]);
+                        break;
+                    case Program.CUT:
+                    case Program.REWIND:
+                        l.or(live[pc + 1]);
+                        l.set(prog.n[pc]);
+                        break;
+                    case Program.BACKREF:
+                        l.or(live[pc + 1]);
+                        l.set(2 * prog.n[pc]);
+                        l.set(2 * prog.n[pc] + 1);
+                        break;
+                    case Program.CHAR:
+                    case Program.RCHAR:
+                    case Program.ASSERT:
+                        l.or(live[pc + 1]);
+                        break;
+                }
+
+                if (!l.equals(live[pc])) {
+                    live[pc] = l;
+                    changed = true;
+                }
+            }
+        }
+
+        boolean[] joins = joins(prog);
+        boolean[] ret = new boolean[prog.size];
+        for (int pc = 0; pc < prog.size; pc++) {
+            ret[pc] = joins[pc] && live[pc].isEmpty();
+        }
+
+        return ret;
+    }
+
+    // the instructions that several instructions continue at (the search starts at the first one), or that one
+    // continues at from positions it doesn't set itself
+    private static boolean[] joins(Program prog) {
+        int[] in = new int[prog.size];
+        boolean[] ret = new boolean[prog.size];
+        in[0]++;
+
+        for (int pc = 0; pc < prog.size; pc++) {
+            switch (prog.op[pc]) {
+                case Program.JMP:
+                    in[prog.x[pc]]++;
+                    break;
+                case Program.SPLIT:
+                case Program.LOOP:
+                    in[prog.x[pc]]++;
+                    in[prog.y[pc]]++;
+                    break;
+                case Program.REPEAT:
+                case Program.MANDATORY:
+                    in[pc + 1]++;
+                    in[prog.y[pc]]++;
+                    break;
+                case Program.BACKREF:
+                case Program.REWIND:
+                    ret[pc + 1] = true;
+                    break;
+                case Program.MATCH:
+                case Program.FAIL:
+                    break;
+                default:
+                    in[pc + 1]++;
+                    break;
+            }
+        }
+
+        for (int pc = 0; pc < prog.size; pc++) {
+            ret[pc] |= in[pc] > 1;
+        }
+
+        return ret;
+    }
+}
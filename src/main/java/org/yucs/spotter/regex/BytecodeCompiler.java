@@ -0,0 +1,544 @@
+package org.yucs.spotter.regex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+// BytecodeCompiler turns a Program into a class of its own, a PrecompiledRegex subclass whose thread() method is the
+// Backtracker's loop specialized to the Program.  Each instruction becomes a few JVM instructions at a label of its
+// own: the jumps between instructions are gotos, the instructions' operands are constants, character classes become
+// range checks, runs of literal characters become unrolled comparisons and instructions that continue at the next
+// one fall through to it.  Only the alternates popped off the stack go through a switch, on the few pcs that SPLITs
+// push.  It finds the same matches as the Backtracker, with the same memory of the tried states (see
+// PrecompiledRegex).
+//
+// The class file is written directly (see ClassFile), without a java compiler, and the classes compiled at run time
+// are defined by a class loader of their own, which lets them be unloaded with their Regex.  The regex-processor
+// module writes the same class files at build time.
+//
+// Programs whose thread() would be longer than MAX_CODE_SIZE bytes aren't compiled: the JIT doesn't compile methods
+// that large, the generated class would end up slower than the Backtracker.
+
+final class BytecodeCompiler {
+    static final int MAX_CODE_SIZE = 8000; // HotSpot's HugeMethodLimit
+
+    private static final String CLASS_NAME = "CompiledRegex";
+    private static final String SUPER = "org/yucs/spotter/regex/PrecompiledRegex";
+    private static final String STRING = "java/lang/String";
+    private static final String MATH = "java/lang/Math";
+
+    // the locals of thread()
+    private static final int TEXT = 1;
+    private static final int PC = 2;
+    private static final int POS = 3;
+    private static final int CAPS = 4;
+    private static final int LEN = 5;
+    private static final int FROM = 6;
+    private static final int TO = 7;
+
+    private BytecodeCompiler() {
+    }
+
+    /**
+     * @param regex the regex prog was compiled from
+     * @param backtracking if prog could only be compiled for the Backtracker
+     * @return an instance of the class compiled from prog
+     * @throws RegexException if the Program is too large to compile
+     */
+    static PrecompiledRegex compile(Program prog, String regex, boolean backtracking) throws RegexException {
+        byte[] bytes = classFile(prog, CLASS_NAME, regex, backtracking);
+
+        try {
+            Class<?> c = new Loader(BytecodeCompiler.class.getClassLoader()).define(bytes);
+            return (PrecompiledRegex) c.getConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            throw new RegexException("Couldn't load the class compiled from " + regex + ": " + e);
+        }
+    }
+
+    /**
+     * @param name the internal name of the class (ex: p/Patterns_EMAIL)
+     * @return the class file of a public PrecompiledRegex subclass matching prog, with a public constructor
+     * @throws RegexException if the Program is too large to compile
+     */
+    static byte[] classFile(Program prog, String name, String regex, boolean backtracking) throws RegexException {
+        ClassFile cf = new ClassFile(ClassFile.ACC_PUBLIC | ClassFile.ACC_FINAL | ClassFile.ACC_SUPER, name, SUPER);
+
+        ClassFile.Code code = cf.method(ClassFile.ACC_PUBLIC, "<init>", "()V", 1);
+        code.local(ClassFile.Code.ALOAD, 0);
+        code.sconst(regex);
+        code.iconst(prog.captureCount);
+        code.iconst(prog.slotCount);
+        code.iconst(prog.size);
+        code.iconst(backtracking ? 1 : 0);
+        code.invokespecial(SUPER, "<init>", "(Ljava/lang/String;IIIZ)V");
+        code.op(ClassFile.Code.RETURN);
+        code.end();
+
+        code = cf.method(ClassFile.ACC_PROTECTED, "newInstance", "()L" + SUPER + ";", 1);
+        code.anew(name);
+        code.op(ClassFile.Code.DUP);
+        code.invokespecial(name, "<init>", "()V");
+        code.op(ClassFile.Code.ARETURN);
+        code.end();
+
+        List<CharacterClass> classes = new ArrayList<>();
+        thread(cf, prog, classes);
+        prefilter(cf, prog.prefilter);
+
+        for (int i = 0; i < classes.size(); i++) {
+            code = cf.method(ClassFile.ACC_PRIVATE | ClassFile.ACC_STATIC, "class" + i, "(C)Z", 1);
+            int yes = code.label();
+            int no = code.label();
+
+            // a class either lists the characters it matches or the ones it doesn't
+            CharacterClass cls = classes.get(i);
+            char[] negated = cls.negatedRanges();
+            ranges(code, (negated.length == 0) ? cls.ranges() : negated, 0, yes);
+            code.jump(ClassFile.Code.GOTO, no);
+
+            code.mark(yes);
+            code.iconst((negated.length == 0) ? 1 : 0);
+            code.op(ClassFile.Code.IRETURN);
+            code.mark(no);
+            code.iconst((negated.length == 0) ? 0 : 1);
+            code.op(ClassFile.Code.IRETURN);
+            code.end();
+        }
+
+        return cf.toBytes();
+    }
+
+    private static void thread(ClassFile cf, Program prog, List<CharacterClass> classes) throws RegexException {
+        boolean[] memoize = Backtracker.memoizable(prog);
+        boolean[] target = targets(prog);
+
+        ClassFile.Code code = cf.method(ClassFile.ACC_PROTECTED, "thread", "(Ljava/lang/String;II[I)Z", 8);
+        int fail = code.label();
+        int[] labels = new int[prog.size];
+        for (int pc = 0; pc < prog.size; pc++) {
+            labels[pc] = code.label();
+        }
+
+        code.local(ClassFile.Code.ALOAD, TEXT);
+        code.invokevirtual(STRING, "length", "()I");
+        code.local(ClassFile.Code.ISTORE, LEN);
+
+        // the search starts at 0, the other alternates at the SPLITs' second choices
+        TreeSet<Integer> entries = new TreeSet<>();
+        entries.add(0);
+        for (int pc = 0; pc < prog.size; pc++) {
+            if (prog.op[pc] == Program.SPLIT)
+                entries.add(prog.y[pc]);
+        }
+
+        int[] keys = new int[entries.size()];
+        int[] entryLabels = new int[entries.size()];
+        int i = 0;
+        for (int pc : entries) {
+            keys[i] = pc;
+            entryLabels[i++] = labels[pc];
+        }
+        code.local(ClassFile.Code.ILOAD, PC);
+        code.lookupswitch(keys, entryLabels, fail);
+
+        for (int pc = 0; pc < prog.size; pc++) {
+            code.mark(labels[pc]);
+
+            if (memoize[pc]) {
+                code.local(ClassFile.Code.ALOAD, 0);
+                code.iconst(pc);
+                code.local(ClassFile.Code.ILOAD, POS);
+                code.invokevirtual(SUPER, "tried", "(II)Z");
+                code.jump(ClassFile.Code.IFNE, fail);
+            }
+
+            int n = prog.n[pc];
+
+            switch (prog.op[pc]) {
+                case Program.CHAR:
+                    // the characters the following CHARs consume when nothing jumps into their middle
+                    int last = pc;
+                    while (last + 1 < prog.size && prog.op[last + 1] == Program.CHAR && !target[last + 1])
+                        last++;
+
+                    int count = last - pc + 1;
+                    code.local(ClassFile.Code.ILOAD, LEN);
+                    code.local(ClassFile.Code.ILOAD, POS);
+                    code.op(ClassFile.Code.ISUB);
+                    code.iconst(count);
+                    code.jump(ClassFile.Code.IF_ICMPLT, fail);
+
+                    for (i = 0; i < count; i++) {
+                        if (prog.cls[pc + i].matchesAll())
+                            continue;
+
+                        code.local(ClassFile.Code.ALOAD, TEXT);
+                        code.local(ClassFile.Code.ILOAD, POS);
+                        if (i > 0) {
+                            code.iconst(i);
+                            code.op(ClassFile.Code.IADD);
+                        }
+                        code.invokevirtual(STRING, "charAt", "(I)C");
+                        test(code, prog.cls[pc + i], classes, fail);
+                    }
+                    code.iinc(POS, count);
+
+                    pc = last;
+                    break;
+
+                case Program.MATCH:
+                    code.iconst(1);
+                    code.op(ClassFile.Code.IRETURN);
+                    break;
+
+                case Program.JMP:
+                    jump(code, prog.x[pc], pc, labels);
+                    break;
+
+                case Program.SPLIT:
+                    code.local(ClassFile.Code.ALOAD, 0);
+                    code.iconst(prog.y[pc]);
+                    code.local(ClassFile.Code.ILOAD, POS);
+                    code.invokevirtual(SUPER, "branch", "(II)V");
+                    jump(code, prog.x[pc], pc, labels);
+                    break;
+
+                case Program.SAVE:
+                    code.local(ClassFile.Code.ALOAD, 0);
+                    code.local(ClassFile.Code.ALOAD, CAPS);
+                    code.iconst(n);
+                    code.local(ClassFile.Code.ILOAD, POS);
+                    code.invokevirtual(SUPER, "set", "([III)V");
+                    break;
+
+                case Program.LOOP:
+                    slot(code, n);
+                    code.local(ClassFile.Code.ILOAD, POS);
+                    code.jump(ClassFile.Code.IF_ICMPEQ, labels[prog.y[pc]]);
+                    code.jump(ClassFile.Code.GOTO, labels[prog.x[pc]]);
+                    break;
+
+                case Program.ASSERT:
+                    anchor(code, (char) n, fail);
+                    break;
+
+                case Program.BACKREF:
+                    slot(code, 2 * n);
+                    code.local(ClassFile.Code.ISTORE, FROM);
+                    slot(code, 2 * n + 1);
+                    code.local(ClassFile.Code.ISTORE, TO);
+
+                    code.local(ClassFile.Code.ILOAD, FROM);
+                    code.iconst(-1);
+                    code.jump(ClassFile.Code.IF_ICMPEQ, fail);
+                    code.local(ClassFile.Code.ILOAD, TO);
+                    code.iconst(-1);
+                    code.jump(ClassFile.Code.IF_ICMPEQ, fail);
+
+                    code.local(ClassFile.Code.ALOAD, TEXT);
+                    code.local(ClassFile.Code.ILOAD, POS);
+                    code.local(ClassFile.Code.ALOAD, TEXT);
+                    code.local(ClassFile.Code.ILOAD, FROM);
+                    code.local(ClassFile.Code.ILOAD, TO);
+                    code.local(ClassFile.Code.ILOAD, FROM);
+                    code.op(ClassFile.Code.ISUB);
+                    code.invokevirtual(STRING, "regionMatches", "(ILjava/lang/String;II)Z");
+                    code.jump(ClassFile.Code.IFEQ, fail);
+
+                    code.local(ClassFile.Code.ILOAD, POS);
+                    code.local(ClassFile.Code.ILOAD, TO);
+                    code.op(ClassFile.Code.IADD);
+                    code.local(ClassFile.Code.ILOAD, FROM);
+                    code.op(ClassFile.Code.ISUB);
+                    code.local(ClassFile.Code.ISTORE, POS);
+                    break;
+
+                case Program.MARK:
+                    code.local(ClassFile.Code.ALOAD, 0);
+                    code.local(ClassFile.Code.ALOAD, CAPS);
+                    code.iconst(n);
+                    code.invokevirtual(SUPER, "mark", "([II)V");
+                    break;
+
+                case Program.CUT:
+                    code.local(ClassFile.Code.ALOAD, 0);
+                    slot(code, n);
+                    code.invokevirtual(SUPER, "cut", "(I)V");
+                    break;
+
+                case Program.RCHAR:
+                    code.local(ClassFile.Code.ILOAD, POS);
+                    code.jump(ClassFile.Code.IFEQ, fail);
+                    code.iinc(POS, -1);
+
+                    if (!prog.cls[pc].matchesAll()) {
+                        code.local(ClassFile.Code.ALOAD, TEXT);
+                        code.local(ClassFile.Code.ILOAD, POS);
+                        code.invokevirtual(STRING, "charAt", "(I)C");
+                        test(code, prog.cls[pc], classes, fail);
+                    }
+                    break;
+
+                case Program.REWIND:
+                    slot(code, n);
+                    code.local(ClassFile.Code.ISTORE, POS);
+                    break;
+
+                case Program.COUNT:
+                    code.local(ClassFile.Code.ALOAD, 0);
+                    code.local(ClassFile.Code.ALOAD, CAPS);
+                    code.iconst(n);
+                    code.iconst(0);
+                    code.invokevirtual(SUPER, "set", "([III)V");
+                    break;
+
+                case Program.REPEAT:
+                    slot(code, n);
+                    code.iconst(prog.x[pc]);
+                    code.jump(ClassFile.Code.IF_ICMPEQ, labels[prog.y[pc]]);
+
+                    code.local(ClassFile.Code.ALOAD, 0);
+                    code.local(ClassFile.Code.ALOAD, CAPS);
+                    code.iconst(n);
+                    slot(code, n);
+                    code.iconst(1);
+                    code.op(ClassFile.Code.IADD);
+                    code.invokevirtual(SUPER, "set", "([III)V");
+                    break;
+
+                case Program.MANDATORY:
+                    slot(code, n);
+                    code.iconst(prog.x[pc]);
+                    code.jump(ClassFile.Code.IF_ICMPLE, labels[prog.y[pc]]);
+                    break;
+
+                default: // FAIL
+                    code.jump(ClassFile.Code.GOTO, fail);
+                    break;
+            }
+        }
+
+        code.mark(fail);
+        code.iconst(0);
+        code.op(ClassFile.Code.IRETURN);
+
+        if (code.size() > MAX_CODE_SIZE)
+            throw new RegexException("The Program is too large to compile (" + code.size() + " bytes)");
+        code.end();
+    }
+
+    // Prefilter.last() and Prefilter.next() with the Prefilter's literals and characters as constants
+    private static void prefilter(ClassFile cf, Prefilter prefilter) throws RegexException {
+        // last(text), with the last position in local 2
+        ClassFile.Code code = cf.method(ClassFile.ACC_PROTECTED, "last", "(Ljava/lang/String;)I", 3);
+        if (prefilter.startAnchored) {
+            code.iconst(0);
+        } else {
+            length(code);
+            code.iconst(1);
+            code.op(ClassFile.Code.ISUB);
+            code.iconst(0);
+            code.invokestatic(MATH, "max", "(II)I");
+        }
+        code.local(ClassFile.Code.ISTORE, 2);
+
+        if (prefilter.minLength > 0) {
+            code.local(ClassFile.Code.ILOAD, 2);
+            length(code);
+            code.iconst(prefilter.minLength);
+            code.op(ClassFile.Code.ISUB);
+            code.invokestatic(MATH, "min", "(II)I");
+            code.local(ClassFile.Code.ISTORE, 2);
+        }
+
+        if (!prefilter.required.isEmpty()) {
+            code.local(ClassFile.Code.ILOAD, 2);
+            code.local(ClassFile.Code.ALOAD, 1);
+            code.sconst(prefilter.required);
+            code.invokevirtual(STRING, "lastIndexOf", "(Ljava/lang/String;)I");
+            code.invokestatic(MATH, "min", "(II)I");
+            code.local(ClassFile.Code.ISTORE, 2);
+        }
+
+        code.local(ClassFile.Code.ILOAD, 2);
+        code.op(ClassFile.Code.IRETURN);
+        code.end();
+
+        // next(text, pos, last), with the text's length in local 4
+        code = cf.method(ClassFile.ACC_PROTECTED, "next", "(Ljava/lang/String;II)I", 5);
+        int none = code.label();
+
+        if (prefilter.endAnchored && prefilter.maxLength != -1) {
+            code.local(ClassFile.Code.ILOAD, 2);
+            length(code);
+            code.iconst(prefilter.maxLength);
+            code.op(ClassFile.Code.ISUB);
+            code.invokestatic(MATH, "max", "(II)I");
+            code.local(ClassFile.Code.ISTORE, 2);
+        }
+
+        boolean first = prefilter.prefix.isEmpty() && prefilter.first != null;
+        if (!prefilter.prefix.isEmpty()) {
+            code.local(ClassFile.Code.ALOAD, 1);
+            code.sconst(prefilter.prefix);
+            code.local(ClassFile.Code.ILOAD, 2);
+            code.invokevirtual(STRING, "indexOf", "(Ljava/lang/String;I)I");
+            code.local(ClassFile.Code.ISTORE, 2);
+        } else if (first) {
+            int loop = code.label();
+            int found = code.label();
+
+            length(code);
+            code.local(ClassFile.Code.ISTORE, 4);
+            code.mark(loop);
+            code.local(ClassFile.Code.ILOAD, 2);
+            code.local(ClassFile.Code.ILOAD, 4);
+            code.jump(ClassFile.Code.IF_ICMPGE, none);
+            code.local(ClassFile.Code.ALOAD, 1);
+            code.local(ClassFile.Code.ILOAD, 2);
+            code.invokevirtual(STRING, "charAt", "(I)C");
+            code.invokestatic(code.owner(), "first", "(C)Z");
+            code.jump(ClassFile.Code.IFNE, found);
+            code.iinc(2, 1);
+            code.jump(ClassFile.Code.GOTO, loop);
+            code.mark(found);
+        }
+
+        code.local(ClassFile.Code.ILOAD, 2);
+        code.local(ClassFile.Code.ILOAD, 3);
+        code.jump(ClassFile.Code.IF_ICMPGT, none);
+        code.local(ClassFile.Code.ILOAD, 2);
+        code.op(ClassFile.Code.IRETURN);
+        code.mark(none);
+        code.iconst(-1);
+        code.op(ClassFile.Code.IRETURN);
+        code.end();
+
+        if (first) {
+            code = cf.method(ClassFile.ACC_PRIVATE | ClassFile.ACC_STATIC, "first", "(C)Z", 1);
+            int yes = code.label();
+            ranges(code, prefilter.first.ranges(), 0, yes);
+            code.iconst(0);
+            code.op(ClassFile.Code.IRETURN);
+            code.mark(yes);
+            code.iconst(1);
+            code.op(ClassFile.Code.IRETURN);
+            code.end();
+        }
+    }
+
+    // the instructions that are continued at other than by the one before them
+    private static boolean[] targets(Program prog) {
+        boolean[] ret = new boolean[prog.size];
+        ret[0] = true;
+
+        for (int pc = 0; pc < prog.size; pc++) {
+            switch (prog.op[pc]) {
+                case Program.SPLIT:
+                case Program.LOOP:
+                    ret[prog.y[pc]] = true;
+                    ret[prog.x[pc]] = true;
+                    break;
+                case Program.JMP:
+                    ret[prog.x[pc]] = true;
+                    break;
+                case Program.REPEAT:
+                case Program.MANDATORY:
+                    ret[prog.y[pc]] = true;
+                    break;
+            }
+        }
+
+        return ret;
+    }
+
+    private static void jump(ClassFile.Code code, int to, int pc, int[] labels) {
+        if (to != pc + 1)
+            code.jump(ClassFile.Code.GOTO, labels[to]);
+    }
+
+    // pushes caps[slot]
+    private static void slot(ClassFile.Code code, int slot) {
+        code.local(ClassFile.Code.ALOAD, CAPS);
+        code.iconst(slot);
+        code.op(ClassFile.Code.IALOAD);
+    }
+
+    // the text's length, in last() and next()
+    private static void length(ClassFile.Code code) {
+        code.local(ClassFile.Code.ALOAD, 1);
+        code.invokevirtual(STRING, "length", "()I");
+    }
+
+    private static void anchor(ClassFile.Code code, char anchor, int fail) throws RegexException {
+        switch (anchor) {
+            case '$':
+                code.local(ClassFile.Code.ILOAD, POS);
+                code.local(ClassFile.Code.ILOAD, LEN);
+                code.jump(ClassFile.Code.IF_ICMPNE, fail);
+                break;
+            case '^':
+                code.local(ClassFile.Code.ILOAD, POS);
+                code.jump(ClassFile.Code.IFNE, fail);
+                break;
+            case 'b':
+            case 'B':
+                code.local(ClassFile.Code.ALOAD, TEXT);
+                code.local(ClassFile.Code.ILOAD, POS);
+                code.invokestatic(SUPER, "wordBreak", "(Ljava/lang/String;I)Z");
+                code.jump((anchor == 'b') ? ClassFile.Code.IFEQ : ClassFile.Code.IFNE, fail);
+                break;
+            default:
+                throw new RegexException("Unexpected ANCHOR token: " + anchor);
+        }
+    }
+
+    // goes to fail unless the char on the stack is in cls: single characters are compared in place, other classes
+    // get a method of their own
+    private static void test(ClassFile.Code code, CharacterClass cls, List<CharacterClass> classes, int fail) {
+        if (cls.literal() != -1) {
+            code.iconst(cls.literal());
+            code.jump(ClassFile.Code.IF_ICMPNE, fail);
+            return;
+        }
+
+        int i = classes.indexOf(cls);
+        if (i == -1) {
+            i = classes.size();
+            classes.add(cls);
+        }
+
+        code.invokestatic(code.owner(), "class" + i, "(C)Z");
+        code.jump(ClassFile.Code.IFEQ, fail);
+    }
+
+    // goes to yes if the char in the local is in one of the ranges, falls through if it isn't
+    private static void ranges(ClassFile.Code code, char[] ranges, int local, int yes) {
+        for (int i = 0; i < ranges.length; i += 2) {
+            code.local(ClassFile.Code.ILOAD, local);
+            code.iconst(ranges[i]);
+
+            if (ranges[i] == ranges[i + 1]) {
+                code.jump(ClassFile.Code.IF_ICMPEQ, yes);
+            } else {
+                int next = code.label();
+                code.jump(ClassFile.Code.IF_ICMPLT, next);
+                code.local(ClassFile.Code.ILOAD, local);
+                code.iconst(ranges[i + 1]);
+                code.jump(ClassFile.Code.IF_ICMPLE, yes);
+                code.mark(next);
+            }
+        }
+    }
+
+    private static class Loader extends ClassLoader {
+        Loader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(byte[] bytes) {
+            return defineClass(CLASS_NAME, bytes, 0, bytes.length);
+        }
+    }
+}
@@ -17,8 +17,19 @@ class CaptureGroupTesterToken extends Token implements TestableToken {
         }
     }
 
+    @Override
+    int captureGroup() {
+        return group;
+    }
+
     @Override
     public boolean match(Matcher m) throws RegexException {
         return m.getGroup(group) != null && next.match(m);
     }
-}
\ No newline at end of file
+
+    // conditions on groups are left to the Token graph
+    @Override
+    public void compileCondition(Compiler c, Token then, Token otherwise) throws RegexException {
+        throw new RegexException("Conditions on capture groups can't be compiled into a Program");
+    }
+}
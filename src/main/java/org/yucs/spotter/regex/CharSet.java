@@ -0,0 +1,119 @@
+package org.yucs.spotter.regex;
+
+import java.util.Arrays;
+
+// CharSet is a set of chars that is tested at every text position, ex: the characters a match can start with (see
+// Token.first()).  The classes added to it are collected as ranges, which are sorted and merged into a CharacterClass
+// (an ASCII bitmap and the ranges beyond it) the first time the set is looked at.  That class is interned, so the
+// Prefilters of a regex (and of other regexes) that start with the same characters share it.
+
+class CharSet {
+    private char[] ranges = new char[8]; // a pair of first and last char per range, merged once cls is made
+    private int size = 0;
+
+    private CharacterClass cls;
+
+    // the Scan of the set for long texts, made the first time one is scanned
+    private Scan scan;
+    private boolean scanMade = false;
+
+    void add(CharacterClass cls) {
+        char[] negated = cls.negatedRanges();
+        char[] added = (negated.length > 0 || cls.matchesAll()) ? CharacterClass.complement(negated) : cls.ranges();
+
+        for (int i = 0; i < added.length; i += 2) {
+            add(added[i], added[i + 1]);
+        }
+    }
+
+    void addAll() {
+        add((char) 0, Character.MAX_VALUE);
+    }
+
+    private void add(char first, char last) {
+        if (size == ranges.length)
+            ranges = Arrays.copyOf(ranges, Math.max(2 * size, 8));
+
+        ranges[size++] = first;
+        ranges[size++] = last;
+
+        cls = null;
+        scan = null;
+        scanMade = false;
+    }
+
+    private CharacterClass cls() {
+        if (cls == null)
+            cls = CharacterClass.of(merge());
+
+        return cls;
+    }
+
+    // sorts the ranges by their first char and joins the ones that overlap or touch
+    private char[] merge() {
+        long[] sorted = new long[size / 2];
+        for (int i = 0; i < size; i += 2) {
+            sorted[i / 2] = (long) ranges[i] << 16 | ranges[i + 1];
+        }
+        Arrays.sort(sorted);
+
+        int n = 0;
+        for (long range : sorted) {
+            char first = (char) (range >>> 16);
+            char last = (char) range;
+
+            if (n > 0 && first <= ranges[n - 1] + 1) {
+                if (last > ranges[n - 1])
+                    ranges[n - 1] = last;
+            } else {
+                ranges[n++] = first;
+                ranges[n++] = last;
+            }
+        }
+
+        ranges = Arrays.copyOf(ranges, n);
+        size = n;
+
+        return ranges;
+    }
+
+    boolean contains(char c) {
+        return cls().match(c);
+    }
+
+    // the first position from pos on with a char of the set, text.length() if there isn't one
+    int next(String text, int pos) {
+        CharacterClass cls = cls();
+        int len = text.length();
+
+        // the first chars are looked up before going to the Scan, which only pays off when there are many to skip
+        for (int end = Math.min(len, pos + Scan.MIN_SKIP); pos < end; pos++) {
+            if (cls.match(text.charAt(pos)))
+                return pos;
+        }
+
+        if (len - pos >= Scan.MIN_LENGTH && Scan.available()) {
+            if (!scanMade) {
+                scan = Scan.of(ranges());
+                scanMade = true;
+            }
+            if (scan != null)
+                return scan.next(text, pos);
+        }
+
+        while (pos < len && !cls.match(text.charAt(pos)))
+            pos++;
+
+        return pos;
+    }
+
+    boolean isFull() {
+        return cls().matchesAll();
+    }
+
+    // the chars in the set as sorted ranges, a pair of first and last char per range
+    char[] ranges() {
+        cls();
+        return ranges;
+    }
+}
@@ -1,37 +1,107 @@
 package org.yucs.spotter.regex;
 
+import java.lang.ref.WeakReference;
 import java.util.Arrays;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+// CharacterClass is the set of characters a [...] class, an escape like \d or a single character matches.
+// - the ASCII characters it matches are a 128 bit bitmap, tested with a shift and a mask
+// - the rest are sorted ranges, a pair of first and last character per range, which are binary searched.  A class that
+//   matches the last character (ex: [^a-z]) keeps the ranges of the characters it doesn't match instead, so that a
+//   negated class is as small as the class it negates.
+//
+// The ranges are kept merged, so two classes that match the same characters are equal whichever way they're written
+// (ex: \d and 0-9).
+//
+// Classes don't change once made, so the parsed ones are interned: the patterns that use the same class (ex: \d+ and
+// [0-9]{4}) share one instance of it.  The table only holds the classes weakly, a class that no pattern uses anymore
+// is collected.
 
 class CharacterClass {
-    private boolean all = false;
-    final static CharacterClass global = new CharacterClass();
+    private static final char[] NONE = new char[0];
+
+    final static CharacterClass global = new CharacterClass(true, NONE);
+
+    private final long ascii0; // characters 0-63
+    private final long ascii1; // characters 64-127
 
-    private final HashSet<Character> characters = new HashSet<>();
-    private final HashSet<Character> negated = new HashSet<>();
+    private final boolean negated; // ranges are the characters the class doesn't match
+    private final char[] ranges;
 
-    private static final Set<Character> digits = new HashSet<>();
-    private static final Set<Character> lower = new HashSet<>();
-    private static final Set<Character> upper = new HashSet<>();
-    private static final Set<Character> words = new HashSet<>();
+    private static final Map<CharacterClass, WeakReference<CharacterClass>> interned = new WeakHashMap<>();
+
+    private static final BitSet digits = new BitSet();
+    private static final BitSet words = new BitSet();
+    private static final BitSet whitespace = new BitSet();
 
     static {
-        for(char c='0'; c <= '9'; c++) {
-            digits.add(c);
+        digits.set('0', '9' + 1);
+
+        words.or(digits);
+        words.set('a', 'z' + 1);
+        words.set('A', 'Z' + 1);
+
+        for (char c : new char[] {' ', '\t','\r', '\n', '\f'}) {
+            whitespace.set(c);
         }
-        for(char c='a'; c <= 'z'; c++) {
-            lower.add(c);
-            upper.add(Character.toUpperCase(c));
+    }
+
+    CharacterClass(String str, int beg, int end) throws RegexException {
+        this(parse(str, beg, end));
+    }
+
+    private CharacterClass(BitSet set) {
+        this(set.get(Character.MAX_VALUE), ranges(set, set.get(Character.MAX_VALUE)));
+    }
+
+    private CharacterClass(boolean negated, char[] ranges) {
+        this.negated = negated;
+        this.ranges = ranges;
+
+        long a0 = 0, a1 = 0;
+        for (char c = 0; c < 128; c++) {
+            if (contains(ranges, c) != negated) {
+                if (c < 64)
+                    a0 |= 1L << c;
+                else
+                    a1 |= 1L << c;
+            }
         }
+        ascii0 = a0;
+        ascii1 = a1;
+    }
 
-        words.addAll(digits);
-        words.addAll(lower);
-        words.addAll(upper);
+    // the class of a single literal character
+    static CharacterClass of(char c) {
+        return intern(new CharacterClass(false, new char[] { c, c }));
     }
-    private static final Set<Character> whitespace = new HashSet<>(Arrays.asList(new Character[] {' ', '\t','\r', '\n', '\f'}));
 
-    CharacterClass(String str, int beg, int end) throws RegexException {
+    // the class of the characters in sorted, merged ranges (see CharSet)
+    static CharacterClass of(char[] ranges) {
+        boolean negated = ranges.length > 0 && ranges[ranges.length - 1] == Character.MAX_VALUE;
+        return intern(new CharacterClass(negated, negated ? complement(ranges) : ranges));
+    }
+
+    // the instance of the class that is already in use, or the class itself if there is none
+    static CharacterClass intern(CharacterClass cls) {
+        synchronized (interned) {
+            WeakReference<CharacterClass> ref = interned.get(cls);
+            CharacterClass shared = (ref == null) ? null : ref.get();
+            if (shared != null)
+                return shared;
+
+            interned.put(cls, new WeakReference<>(cls));
+            return cls;
+        }
+    }
+
+    // The characters a class matches are the ones it lists and, if it negates any, all the ones it doesn't negate
+    private static BitSet parse(String str, int beg, int end) throws RegexException {
+        BitSet characters = new BitSet();
+        BitSet negated = new BitSet();
+
         int i = beg;
         boolean negate = false;
 
@@ -42,108 +112,207 @@ class CharacterClass {
 
         for (; i <= end; i++) {
             if (str.charAt(i) == '\\') {
-                parseSlash(negate, str, i);
+                parseSlash(negate, str, i, characters, negated);
                 i++;
             } else if (i+2 <= end && str.charAt(i+1) == '-' ) {
-                parseRange(negate, str, i);
+                parseRange(str, i, negate ? negated : characters);
                 i += 2;
             } else {
-                if (!negate) {
-                    characters.add(str.charAt(i));
-                } else {
-                    negated.add(str.charAt(i));
-                }
+                (negate ? negated : characters).set(str.charAt(i));
             }
         }
-    }
 
-    private CharacterClass() {
-        all = true;
+        if (!negated.isEmpty()) {
+            negated.flip(0, Character.MAX_VALUE + 1);
+            characters.or(negated);
+        }
+
+        return characters;
     }
 
     public boolean match(char c) {
-        return characters.contains(c) || (negated.size() > 0 && !negated.contains(c)) || all;
+        if (c < 64)
+            return (ascii0 & (1L << c)) != 0;
+        if (c < 128)
+            return (ascii1 & (1L << c)) != 0;
+
+        return contains(ranges, c) != negated;
+    }
+
+    private static boolean contains(char[] ranges, char c) {
+        int lo = 0;
+        int hi = ranges.length / 2 - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (c < ranges[2 * mid])
+                hi = mid - 1;
+            else if (c > ranges[2 * mid + 1])
+                lo = mid + 1;
+            else
+                return true;
+        }
+
+        return false;
+    }
+
+    // Is there a character that both classes match?  Two negated classes always share the last character, otherwise
+    // a shared character is one of the ranges of one of them.
+    boolean intersects(CharacterClass other) {
+        if ((ascii0 & other.ascii0) != 0 || (ascii1 & other.ascii1) != 0)
+            return true;
+
+        if (negated && other.negated)
+            return true;
+
+        // what's left are the characters from 128 on of a class that lists them
+        CharacterClass listed = negated ? other : this;
+        CharacterClass cls = negated ? this : other;
+        for (int i = 0; i < listed.ranges.length; i += 2) {
+            if (listed.ranges[i + 1] < 128)
+                continue;
+
+            char first = (char) Math.max(listed.ranges[i], 128);
+            if (cls.negated ? !covered(cls.ranges, first, listed.ranges[i + 1])
+                            : overlaps(cls.ranges, first, listed.ranges[i + 1]))
+                return true;
+        }
+
+        return false;
+    }
+
+    private static boolean overlaps(char[] ranges, char first, char last) {
+        for (int i = 0; i < ranges.length; i += 2) {
+            if (ranges[i] <= last && ranges[i + 1] >= first)
+                return true;
+        }
+
+        return false;
+    }
+
+    // merged ranges leave a gap between each other, so a covered range is in one of them
+    private static boolean covered(char[] ranges, char first, char last) {
+        for (int i = 0; i < ranges.length; i += 2) {
+            if (ranges[i] <= first && ranges[i + 1] >= last)
+                return true;
+        }
+
+        return false;
+    }
+
+    boolean matchesAll() {
+        return negated && ranges.length == 0;
+    }
+
+    // the only character the class matches, -1 if it matches more than one
+    int literal() {
+        if (negated || ranges.length != 2 || ranges[0] != ranges[1])
+            return -1;
+
+        return ranges[0];
     }
 
-    private void parseRange(boolean negate, String s, int pos) throws RegexException {
+    // The characters the class matches as sorted ranges, a pair of first and last character per range, empty if the
+    // class is negated
+    char[] ranges() {
+        return negated ? NONE : ranges;
+    }
+
+    // the characters a negated class doesn't match, same format
+    char[] negatedRanges() {
+        return negated ? ranges : NONE;
+    }
+
+    // the ranges between sorted, merged ranges, the characters they don't have
+    static char[] complement(char[] ranges) {
+        char[] ret = new char[ranges.length + 2];
+        int n = 0;
+
+        int from = 0;
+        for (int i = 0; i < ranges.length; i += 2) {
+            if (ranges[i] > from) {
+                ret[n++] = (char) from;
+                ret[n++] = (char) (ranges[i] - 1);
+            }
+            from = ranges[i + 1] + 1;
+        }
+        if (from <= Character.MAX_VALUE) {
+            ret[n++] = (char) from;
+            ret[n++] = Character.MAX_VALUE;
+        }
+
+        return Arrays.copyOf(ret, n);
+    }
+
+    // the ranges of the characters in the set, or of the ones not in it
+    private static char[] ranges(BitSet set, boolean complement) {
+        char[] ret = new char[16];
+        int n = 0;
+
+        int from = complement ? set.nextClearBit(0) : set.nextSetBit(0);
+        while (from != -1 && from <= Character.MAX_VALUE) {
+            int to = complement ? set.nextSetBit(from) : set.nextClearBit(from);
+            if (to == -1 || to > Character.MAX_VALUE + 1)
+                to = Character.MAX_VALUE + 1;
+
+            if (n == ret.length)
+                ret = Arrays.copyOf(ret, 2 * n);
+            ret[n++] = (char) from;
+            ret[n++] = (char) (to - 1);
+
+            from = complement ? set.nextClearBit(to) : set.nextSetBit(to);
+        }
+
+        return Arrays.copyOf(ret, n);
+    }
+
+    private static void parseRange(String s, int pos, BitSet set) throws RegexException {
         if (s.charAt(pos) < s.charAt(pos+2)) {
-            for(char c=s.charAt(pos); c <= s.charAt(pos+2); c++)
-                if (!negate) {
-                    characters.add(c);
-                } else {
-                    negated.add(c);
-                }
+            set.set(s.charAt(pos), s.charAt(pos+2) + 1);
         } else {
             throw new RegexException("Character class ranged have to be in ascending order: " + s.substring(pos, pos+3));
         }
     }
 
-    private void parseSlash(boolean negate, String s, int pos) throws RegexException {
+    private static void parseSlash(boolean negate, String s, int pos, BitSet characters, BitSet negated)
+            throws RegexException {
         // In tokenizer checked to make sure we aren't ending with a single slash
         switch (s.charAt(pos + 1)) {
             case '.':
-                characters.add('.');
-                break;
             case '-':
-                characters.add('-');
-                break;
             case '\\':
-                characters.add('\\');
-                break;
             case '+':
-                characters.add('+');
-                break;
             case '*':
-                characters.add('*');
-                break;
             case '?':
-                characters.add('?');
-                break;
             case '^':
-                characters.add('^');
-                break;
             case '$':
-                characters.add('$');
-                break;
             case '|':
-                characters.add('|');
-                break;
             case '(':
-                characters.add('(');
-                break;
             case ')':
-                characters.add(')');
+                characters.set(s.charAt(pos + 1));
                 break;
             case 'd':
-                addSet(negate, digits);
+                (negate ? negated : characters).or(digits);
                 break;
             case 'D':
-                addSet(!negate, digits);
+                (negate ? characters : negated).or(digits);
                 break;
             case 'w':
-                addSet(negate, words);
+                (negate ? negated : characters).or(words);
                 break;
             case 'W':
-                addSet(!negate, words);
+                (negate ? characters : negated).or(words);
                 break;
             case 's':
-                addSet(negate, whitespace);
+                (negate ? negated : characters).or(whitespace);
                 break;
             case 'S':
-                addSet(!negate, whitespace);
+                (negate ? characters : negated).or(whitespace);
                 break;
             default:
                 throw new RegexException("parseSlash: unknown slash case: " + s.charAt(pos + 1) + " at index: " + (pos+1));
         }
     }
 
-    private void addSet(boolean negate, Set<Character> set) {
-        if (negate)
-            negated.addAll(set);
-        else
-            characters.addAll(set);
-    }
-
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -151,14 +320,11 @@ class CharacterClass {
 
         CharacterClass that = (CharacterClass) o;
 
-        return all == that.all && characters.equals(that.characters) && negated.equals(that.negated);
+        return negated == that.negated && Arrays.equals(ranges, that.ranges);
     }
 
     @Override
     public int hashCode() {
-        int result = (all ? 1 : 0);
-        result = 31 * result + characters.hashCode();
-        result = 31 * result + negated.hashCode();
-        return result;
+        return 31 * (negated ? 1 : 0) + Arrays.hashCode(ranges);
     }
-}
\ No newline at end of file
+}
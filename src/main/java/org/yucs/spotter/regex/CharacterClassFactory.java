@@ -15,11 +15,11 @@ class CharacterClassFactory {
                     throw new RegexException("need to end character class (started at index: " + regex_pos + ") with a brace");
                 }
                 //cut out the [ and ]
-                w.c = new CharacterClass(regex, regex_pos+1, end-1);
+                w.c = CharacterClass.intern(new CharacterClass(regex, regex_pos+1, end-1));
                 w.regex_pos = end + 1;
                 break;
             case '\\':
-                w.c = new CharacterClass(regex, regex_pos, regex_pos + 1);
+                w.c = CharacterClass.intern(new CharacterClass(regex, regex_pos, regex_pos + 1));
                 w.regex_pos = regex_pos + 2;
                 break;
             case '.':
@@ -36,7 +36,7 @@ class CharacterClassFactory {
             case ')':
                 throw new RegexException("invalid character in regex: " + regex.charAt(regex_pos) + " at index: " + regex_pos);
             default: //plain character
-                w.c = new CharacterClass(regex, regex_pos, regex_pos);
+                w.c = CharacterClass.intern(new CharacterClass(regex, regex_pos, regex_pos));
                 w.regex_pos = regex_pos + 1;
         }
 
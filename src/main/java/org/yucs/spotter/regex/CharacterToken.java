@@ -1,5 +1,7 @@
 package org.yucs.spotter.regex;
 
+import java.util.List;
+
 // CharacterToken matches against a single character in the text based on the character class that it contains
 // It moves the text forwards or backwards depending on the direction we are currently moving in the match (ex: look behinds)
 
@@ -37,4 +39,56 @@ class CharacterToken extends Token {
 
         return false;
     }
+
+    @Override
+    void compile(Compiler compiler) throws RegexException {
+        compiler.character(c);
+    }
+
+    @Override
+    boolean literal(StringBuilder sb) {
+        int literal = c.literal();
+        if (literal == -1)
+            return false;
+
+        sb.append((char) literal);
+        return next.literal(sb);
+    }
+
+    @Override
+    boolean prefix(StringBuilder sb) {
+        int literal = c.literal();
+        if (literal == -1)
+            return false;
+
+        sb.append((char) literal);
+        return next.prefix(sb);
+    }
+
+    @Override
+    boolean first(CharSet set) {
+        set.add(c);
+        return false;
+    }
+
+    @Override
+    int minLength() {
+        return addMinLengths(1, next.minLength());
+    }
+
+    @Override
+    int maxLength() {
+        return addLengths(1, next.maxLength());
+    }
+
+    @Override
+    void required(StringBuilder run, List<String> runs) {
+        int literal = c.literal();
+        if (literal == -1)
+            endRun(run, runs);
+        else
+            run.append((char) literal);
+
+        next.required(run, runs);
+    }
 }
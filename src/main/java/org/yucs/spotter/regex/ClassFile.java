@@ -0,0 +1,341 @@
+package org.yucs.spotter.regex;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// ClassFile writes the bytes of a class, for BytecodeCompiler.  It only knows the few parts of the format that the
+// generated classes use: the constant pool entries for strings, ints, classes and methods, and methods with a
+// Code attribute.  The classes are version 49 (java 5), the last one that the JVM verifies without the stack map
+// frames of the branch targets, so the code needs nothing computed about it but its branch offsets.
+//
+// Names are internal names (ex: java/lang/String) and types are descriptors (ex: (Ljava/lang/String;I)Z).
+
+final class ClassFile {
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_PRIVATE = 0x0002;
+    static final int ACC_PROTECTED = 0x0004;
+    static final int ACC_STATIC = 0x0008;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    // the code of a method may be as long as the branch offsets reach
+    static final int MAX_CODE_SIZE = Short.MAX_VALUE;
+
+    private static final int VERSION = 49;
+
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final Map<String, Integer> entries = new HashMap<>();
+    private int poolCount = 1;
+
+    private final int access;
+    private final String name;
+    private final int thisClass;
+    private final int superClass;
+    private final List<byte[]> methods = new ArrayList<>();
+
+    ClassFile(int access, String name, String superName) {
+        this.access = access;
+        this.name = name;
+        thisClass = cls(name);
+        superClass = cls(superName);
+    }
+
+    // the index of the constant, which is added to the pool the first time
+    private int entry(String key, int tag, Object... values) {
+        Integer ret = entries.get(key);
+        if (ret != null)
+            return ret;
+
+        try {
+            poolOut.writeByte(tag);
+            for (Object value : values) {
+                if (value instanceof String)
+                    poolOut.writeUTF((String) value);
+                else if (tag == 3) // CONSTANT_Integer
+                    poolOut.writeInt((Integer) value);
+                else
+                    poolOut.writeShort((Integer) value);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // a ByteArrayOutputStream doesn't throw
+        }
+
+        entries.put(key, poolCount);
+        return poolCount++;
+    }
+
+    private int utf8(String s) {
+        return entry("U" + s, 1, s);
+    }
+
+    private int cls(String name) {
+        return entry("C" + name, 7, utf8(name));
+    }
+
+    private int string(String s) {
+        return entry("S" + s, 8, utf8(s));
+    }
+
+    private int integer(int i) {
+        return entry("I" + i, 3, i);
+    }
+
+    private int nameAndType(String name, String type) {
+        return entry("N" + name + " " + type, 12, utf8(name), utf8(type));
+    }
+
+    private int method(String owner, String name, String type) {
+        return entry("M" + owner + "." + name + type, 10, cls(owner), nameAndType(name, type));
+    }
+
+    /**
+     * @return the code of a new method of the class, which is added by its end()
+     */
+    Code method(int access, String name, String type, int maxLocals) {
+        return new Code(access, name, type, maxLocals);
+    }
+
+    byte[] toBytes() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(poolCount);
+            pool.writeTo(out);
+            out.writeShort(access);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); // interfaces
+            out.writeShort(0); // fields
+            out.writeShort(methods.size());
+            for (byte[] method : methods) {
+                out.write(method);
+            }
+            out.writeShort(0); // attributes
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    // The instructions of a method.  The branches go to labels (from label()), whose offsets are filled in by end().
+    // Every method leaves at most a few values on the stack, which MAX_STACK covers.
+    final class Code {
+        static final int ILOAD = 0x15;
+        static final int ALOAD = 0x19;
+        static final int ISTORE = 0x36;
+        static final int IALOAD = 0x2e;
+        static final int IADD = 0x60;
+        static final int ISUB = 0x64;
+        static final int DUP = 0x59;
+        static final int IRETURN = 0xac;
+        static final int ARETURN = 0xb0;
+        static final int RETURN = 0xb1;
+        static final int IFEQ = 0x99;
+        static final int IFNE = 0x9a;
+        static final int IF_ICMPEQ = 0x9f;
+        static final int IF_ICMPNE = 0xa0;
+        static final int IF_ICMPLT = 0xa1;
+        static final int IF_ICMPGE = 0xa2;
+        static final int IF_ICMPGT = 0xa3;
+        static final int IF_ICMPLE = 0xa4;
+        static final int GOTO = 0xa7;
+
+        private static final int MAX_STACK = 8;
+
+        private final int access;
+        private final String name;
+        private final String type;
+        private final int maxLocals;
+
+        private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+        private final List<Integer> labels = new ArrayList<>(); // the offset of each label, -1 until it's marked
+
+        // the branches to fill in: the offset of the instruction, of its operand and the label, 4 bytes operands
+        // (the switches') are negative
+        private final List<int[]> branches = new ArrayList<>();
+
+        private Code(int access, String name, String type, int maxLocals) {
+            this.access = access;
+            this.name = name;
+            this.type = type;
+            this.maxLocals = maxLocals;
+        }
+
+        int size() {
+            return code.size();
+        }
+
+        // the name of the class of the method
+        String owner() {
+            return ClassFile.this.name;
+        }
+
+        int label() {
+            labels.add(-1);
+            return labels.size() - 1;
+        }
+
+        void mark(int label) {
+            labels.set(label, code.size());
+        }
+
+        void op(int opcode) {
+            code.write(opcode);
+        }
+
+        private void u2(int i) {
+            code.write(i >> 8);
+            code.write(i);
+        }
+
+        private void u4(int i) {
+            u2(i >> 16);
+            u2(i);
+        }
+
+        // the locals are at most 255
+        void local(int opcode, int local) {
+            code.write(opcode);
+            code.write(local);
+        }
+
+        void iinc(int local, int delta) {
+            if (delta >= Byte.MIN_VALUE && delta <= Byte.MAX_VALUE) {
+                code.write(0x84);
+                code.write(local);
+                code.write(delta);
+            } else {
+                local(ILOAD, local);
+                iconst(delta);
+                op(IADD);
+                local(ISTORE, local);
+            }
+        }
+
+        void iconst(int i) {
+            if (i >= -1 && i <= 5) {
+                code.write(0x03 + i);
+            } else if (i >= Byte.MIN_VALUE && i <= Byte.MAX_VALUE) {
+                code.write(0x10); // bipush
+                code.write(i);
+            } else if (i >= Short.MIN_VALUE && i <= Short.MAX_VALUE) {
+                code.write(0x11); // sipush
+                u2(i);
+            } else {
+                ldc(integer(i));
+            }
+        }
+
+        void sconst(String s) {
+            ldc(string(s));
+        }
+
+        private void ldc(int index) {
+            if (index <= 0xff) {
+                code.write(0x12);
+                code.write(index);
+            } else {
+                code.write(0x13); // ldc_w
+                u2(index);
+            }
+        }
+
+        void jump(int opcode, int label) {
+            branches.add(new int[] { code.size(), code.size() + 1, label });
+            code.write(opcode);
+            u2(0);
+        }
+
+        // jumps to labels[i] when the int on the stack is keys[i] (sorted), to otherwise if it's none of them
+        void lookupswitch(int[] keys, int[] labels, int otherwise) {
+            int at = code.size();
+            code.write(0xab);
+            while (code.size() % 4 != 0)
+                code.write(0);
+
+            branches.add(new int[] { at, -code.size() - 1, otherwise });
+            u4(0);
+            u4(keys.length);
+            for (int i = 0; i < keys.length; i++) {
+                u4(keys[i]);
+                branches.add(new int[] { at, -code.size() - 1, labels[i] });
+                u4(0);
+            }
+        }
+
+        void invokevirtual(String owner, String name, String type) {
+            code.write(0xb6);
+            u2(method(owner, name, type));
+        }
+
+        void invokespecial(String owner, String name, String type) {
+            code.write(0xb7);
+            u2(method(owner, name, type));
+        }
+
+        void invokestatic(String owner, String name, String type) {
+            code.write(0xb8);
+            u2(method(owner, name, type));
+        }
+
+        void anew(String name) {
+            code.write(0xbb);
+            u2(cls(name));
+        }
+
+        /**
+         * Adds the method to the class
+         *
+         * @throws RegexException if its code is too large
+         */
+        void end() throws RegexException {
+            if (code.size() > MAX_CODE_SIZE)
+                throw new RegexException("Method " + name + " is too large to compile (" + code.size() + " bytes)");
+
+            byte[] bytes = code.toByteArray();
+            for (int[] branch : branches) {
+                int offset = labels.get(branch[2]) - branch[0];
+                if (branch[1] >= 0) {
+                    bytes[branch[1]] = (byte) (offset >> 8);
+                    bytes[branch[1] + 1] = (byte) offset;
+                } else {
+                    for (int i = 0; i < 4; i++) {
+                        bytes[-branch[1] - 1 + i] = (byte) (offset >> (24 - 8 * i));
+                    }
+                }
+            }
+
+            ByteArrayOutputStream method = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(method);
+            try {
+                out.writeShort(access);
+                out.writeShort(utf8(name));
+                out.writeShort(utf8(type));
+                out.writeShort(1); // the Code attribute
+                out.writeShort(utf8("Code"));
+                out.writeInt(12 + bytes.length);
+                out.writeShort(MAX_STACK);
+                out.writeShort(maxLocals);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+                out.writeShort(0); // exception table
+                out.writeShort(0); // attributes
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+
+            methods.add(method.toByteArray());
+        }
+    }
+}
@@ -0,0 +1,603 @@
+package org.yucs.spotter.regex;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Compiler lowers a Token graph into a Program.
+// Every Token compiles itself (see Token.compile()), the Compiler provides the instruction emitting and the
+// constructs that are shared between tokens (alternates, captures and quantifiers).
+//
+// Tokens that need backtracking to be matched (back references, look arounds, atomic groups...) only compile into a
+// Program for the Backtracker.  Recursion refuses to compile, in which case there is no Program and only the Token
+// graph can be used for matching.
+
+class Compiler {
+    // Counted quantifiers are compiled by copying the quantified tokens, don't let {n,m} blow up the Program
+    static final int MAX_PROGRAM_SIZE = 100000;
+
+    // A Program for the Backtracker counts the iterations in a register instead when the copies would take more
+    // instructions than this.  The Backtracker can't memoize the states of a counting loop, the count is part of them,
+    // and tokens with choices of their own then try them again on every path that gets there.  Those are only counted
+    // when the copies would take more than MAX_MEMOIZED_SIZE, where the memo has room for a few hundred positions
+    // anyway (see Backtracker.DEFAULT_MAX_MEMO).
+    static final int MAX_COPIES_SIZE = 64;
+    static final int MAX_MEMOIZED_SIZE = 4096;
+
+    private int[] op = new int[16];
+    private int[] x = new int[16];
+    private int[] y = new int[16];
+    private int[] n = new int[16];
+    private CharacterClass[] cls = new CharacterClass[16];
+    private int size = 0;
+
+    private final int captureCount;
+    private int registerCount = 0;
+
+    // a Program for the Backtracker can also use the instructions that the automaton engines can't run
+    private final boolean backtracking;
+    private final Set<Integer> openGroups = new HashSet<>();
+
+    // set while compiling the tokens of a look behind, which were reversed by the Tokenizer to be matched backwards
+    private boolean backward = false;
+
+    // the MARK of each look around that goes back to where it started, and the instruction after its REWIND
+    private final Map<Integer, Integer> lookarounds = new HashMap<>();
+
+    // the number of instructions the tokens starting at a Token compile to, and the ones that have a choice (a SPLIT)
+    // among them, see size()
+    private final Map<Token, Integer> sizes = new IdentityHashMap<>();
+    private final Set<Token> choices = Collections.newSetFromMap(new IdentityHashMap<Token, Boolean>());
+
+    private final Prefilter prefilter;
+
+    private Compiler(int captureCount, boolean backtracking, Token t) {
+        this.captureCount = captureCount;
+        this.backtracking = backtracking;
+        this.prefilter = new Prefilter(t);
+    }
+
+    /**
+     * @return the Program for the tokenized regex or null if the regex uses a Token that can't be compiled
+     */
+    static Program compile(Tokenizer tokenizer) {
+        return compile(tokenizer, false);
+    }
+
+    /**
+     * @param backtracking if the Program is for the Backtracker, which can run back references, atomic groups and look
+     *                     arounds
+     * @return the Program for the tokenized regex or null if the regex uses a Token that can't be compiled
+     */
+    static Program compile(Tokenizer tokenizer, boolean backtracking) {
+        try {
+            return compile(tokenizer.tokenize(), tokenizer.captureCount, backtracking);
+        } catch (RegexException e) {
+            return null;
+        }
+    }
+
+    /**
+     * The reversed Program matches the reversed strings of the regex, it's run from the end of a match towards its
+     * start.  Reversing changes the Token graph, so the regex is tokenized again.
+     *
+     * @return the Program for the reversed regex or null if the regex uses a Token that can't be compiled
+     */
+    static Program compileReverse(String regex) {
+        try {
+            Tokenizer tokenizer = new Tokenizer(regex);
+            return compile(tokenizer.tokenize().reverse(), tokenizer.captureCount, false);
+        } catch (RegexException e) {
+            return null;
+        }
+    }
+
+    private static Program compile(Token t, int captureCount, boolean backtracking) throws RegexException {
+        Compiler c = new Compiler(captureCount, backtracking, t);
+
+        c.openGroups.add(0);
+        c.emit(Program.SAVE, 0, 0, 0, null);
+        c.chain(t);
+        c.emit(Program.SAVE, 0, 0, 1, null);
+        c.emit(Program.MATCH, 0, 0, 0, null);
+
+        return c.program();
+    }
+
+    private Program program() {
+        return new Program(op, x, y, n, cls, size, captureCount, registerCount, prefilter);
+    }
+
+    int emit(int op, int x, int y, int n, CharacterClass cls) throws RegexException {
+        if (size == MAX_PROGRAM_SIZE)
+            throw new RegexException("Program is larger than " + MAX_PROGRAM_SIZE + " instructions");
+
+        if (size == this.op.length) {
+            int len = size * 2;
+            this.op = Arrays.copyOf(this.op, len);
+            this.x = Arrays.copyOf(this.x, len);
+            this.y = Arrays.copyOf(this.y, len);
+            this.n = Arrays.copyOf(this.n, len);
+            this.cls = Arrays.copyOf(this.cls, len);
+        }
+
+        this.op[size] = op;
+        this.x[size] = x;
+        this.y[size] = y;
+        this.n[size] = n;
+        this.cls[size] = cls;
+
+        return size++;
+    }
+
+    void patchX(int pc, int target) {
+        x[pc] = target;
+    }
+
+    void patchY(int pc, int target) {
+        y[pc] = target;
+    }
+
+    // Compiles a list of tokens, stopping at the NullToken that ends it
+    void chain(Token t) throws RegexException {
+        for (; t != NullToken.Instance; t = t.next) {
+            t.compile(this);
+        }
+    }
+
+    // alternates are tried in order, each one but the last is a SPLIT that prefers the alternate to the rest
+    void alternate(Iterator<Token> alts) throws RegexException {
+        List<Integer> jumps = new ArrayList<>();
+
+        while (alts.hasNext()) {
+            Token alt = alts.next();
+
+            if (!alts.hasNext()) {
+                chain(alt);
+                break;
+            }
+
+            int split = emit(Program.SPLIT, size + 1, 0, 0, null);
+            chain(alt);
+            jumps.add(emit(Program.JMP, 0, 0, 0, null));
+            patchY(split, size);
+        }
+
+        for (int jump : jumps) {
+            patchX(jump, size);
+        }
+    }
+
+    // Alternates that are all literals (ex: GET|POST|PUT) share the instructions of their common prefixes, as a trie,
+    // so that the engines don't follow every one of them from each position.  A trie node continues with a SPLIT
+    // between the literal that ends at it and its children in the order of their first literal, which only keeps the
+    // order of the alternates when that literal doesn't come between two of a child's.  Otherwise this returns false
+    // without emitting anything, and the alternates are compiled one after the other.
+    //
+    // With the literals sorted, a node is the range of them that share its prefix, at the depth of its character.
+    boolean literals(List<String> alts) throws RegexException {
+        final String[] literals = alts.toArray(new String[alts.size()]);
+        Integer[] sorted = new Integer[literals.length];
+        for (int i = 0; i < literals.length; i++) {
+            sorted[i] = i;
+        }
+
+        Arrays.sort(sorted, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int c = literals[a].compareTo(literals[b]);
+                return (c != 0) ? c : Integer.compare(a, b);
+            }
+        });
+
+        // the branches of every node, in the order the nodes are emitted in
+        List<List<int[]>> trie = new ArrayList<>();
+        Deque<int[]> nodes = new ArrayDeque<>();
+        nodes.push(new int[] { 0, sorted.length, 0 });
+        while (!nodes.isEmpty()) {
+            int[] node = nodes.pop();
+            List<int[]> branches = branches(literals, sorted, node);
+            if (branches == null)
+                return false;
+            trie.add(branches);
+
+            for (int i = branches.size() - 1; i >= 0; i--) {
+                int[] branch = branches.get(i);
+                if (branch[1] != -1)
+                    nodes.push(new int[] { branch[1], branch[2], node[2] + 1 });
+            }
+        }
+
+        // the branches of the nodes being emitted, each one but the last behind a SPLIT to the one after it
+        Map<Character, CharacterClass> classes = new HashMap<>();
+        List<Integer> jumps = new ArrayList<>();
+        Deque<Branches> stack = new ArrayDeque<>();
+        Iterator<List<int[]>> it = trie.iterator();
+        stack.push(new Branches(it.next(), 0));
+
+        while (!stack.isEmpty()) {
+            Branches b = stack.peek();
+            if (b.next == b.branches.size()) {
+                stack.pop();
+                continue;
+            }
+
+            if (b.split != -1)
+                patchY(b.split, size);
+            b.split = (b.next < b.branches.size() - 1) ? emit(Program.SPLIT, size + 1, 0, 0, null) : -1;
+
+            int[] branch = b.branches.get(b.next++);
+            if (branch[1] == -1) {
+                jumps.add(emit(Program.JMP, 0, 0, 0, null));
+            } else {
+                char c = literals[sorted[branch[1]]].charAt(b.depth);
+                if (!classes.containsKey(c))
+                    classes.put(c, CharacterClass.of(c));
+                character(classes.get(c));
+                stack.push(new Branches(it.next(), b.depth + 1));
+            }
+        }
+
+        for (int jump : jumps) {
+            patchX(jump, size);
+        }
+
+        return true;
+    }
+
+    // The branches of a trie node { from, to, depth } of the sorted literals: { first alternate, -1, -1 } for the
+    // literal that ends at it, { first alternate, from, to } for each child, in the order of their first alternates.
+    // null when the node can't keep the order of the alternates.
+    private static List<int[]> branches(String[] literals, Integer[] sorted, int[] node) {
+        int from = node[0], to = node[1], depth = node[2];
+        List<int[]> ret = new ArrayList<>();
+
+        // the literal sorts before the longer ones, and before the same literal further in the alternates
+        int end = -1;
+        if (from < to && literals[sorted[from]].length() == depth) {
+            end = sorted[from];
+            ret.add(new int[] { end, -1, -1 });
+            while (from < to && literals[sorted[from]].length() == depth) {
+                from++;
+            }
+        }
+
+        while (from < to) {
+            char c = literals[sorted[from]].charAt(depth);
+            int min = sorted[from], max = sorted[from];
+            int i = from + 1;
+            for (; i < to && literals[sorted[i]].charAt(depth) == c; i++) {
+                min = Math.min(min, sorted[i]);
+                max = Math.max(max, sorted[i]);
+            }
+
+            if (end != -1 && min < end && end < max)
+                return null;
+
+            ret.add(new int[] { min, from, i });
+            from = i;
+        }
+
+        if (ret.size() > 1) {
+            Collections.sort(ret, new Comparator<int[]>() {
+                @Override
+                public int compare(int[] a, int[] b) {
+                    return Integer.compare(a[0], b[0]);
+                }
+            });
+        }
+
+        return ret;
+    }
+
+    private static final class Branches {
+        final List<int[]> branches;
+        final int depth;
+        int next = 0;
+        int split = -1;
+
+        Branches(List<int[]> branches, int depth) {
+            this.branches = branches;
+            this.depth = depth;
+        }
+    }
+
+    void character(CharacterClass c) throws RegexException {
+        emit(backward ? Program.RCHAR : Program.CHAR, 0, 0, 0, c);
+    }
+
+    // matched backwards, a group reaches its end first
+    void capture(int group, Token t) throws RegexException {
+        openGroups.add(group);
+        emit(Program.SAVE, 0, 0, backward ? 2 * group + 1 : 2 * group, null);
+        chain(t);
+        emit(Program.SAVE, 0, 0, backward ? 2 * group : 2 * group + 1, null);
+        openGroups.remove(group);
+    }
+
+    // Inside its own group, a back reference refers to the group's previous capture, which the slots don't keep
+    // (the group's start slot already holds the new start).  Those, and references to groups that don't exist, are
+    // left to the Token graph.
+    void backReference(int group) throws RegexException {
+        if (!backtracking)
+            throw new RegexException("Back references can only be compiled for the Backtracker");
+        if (group >= captureCount || openGroups.contains(group) || backward)
+            throw new RegexException("Back reference to group " + group + " can't be compiled");
+
+        emit(Program.BACKREF, 0, 0, group, null);
+    }
+
+    // The mandatory min iterations are copies of the quantified token.
+    // Unbounded max becomes a loop, a bounded max becomes (max - min) nested optional copies.
+    //
+    // An iteration that doesn't consume any text ends the quantifier (like the seen set of the QuantifierTokens),
+    // so each optional iteration stores its start in a register that the LOOP at its end compares against.
+    // When the quantified tokens can't match an empty string the register isn't needed and is given back.
+    //
+    // When the copies would take more than MAX_COPIES_SIZE instructions (MAX_MEMOIZED_SIZE for tokens with choices of
+    // their own), a Program for the Backtracker has a single
+    // copy in a loop instead (ex: \d{2,1000}).  The loop COUNTs its iterations in a register, the REPEAT at its start
+    // leaves it after max iterations and the MANDATORY ones skip the choice to leave and the check for an empty
+    // iteration during the first min.  The automaton engines can't count, their Programs have the copies up to
+    // MAX_PROGRAM_SIZE.
+    void repeat(Token t, int min, int max, boolean greedy) throws RegexException {
+        // each optional copy also has a SPLIT, a SAVE and a LOOP
+        int copies = (max == -1) ? min : max;
+        long copiesSize = (copies > 1) ? (long) size(t) * copies + 3L * (copies - min) : 0;
+        if (!backtracking && copiesSize > MAX_PROGRAM_SIZE)
+            throw new RegexException("Program is larger than " + MAX_PROGRAM_SIZE + " instructions");
+
+        long maxCopiesSize = choices.contains(t) ? MAX_MEMOIZED_SIZE : MAX_COPIES_SIZE;
+        int counter = (backtracking && copiesSize > maxCopiesSize) ? register() : -1;
+
+        if (counter != -1 && max == min) {
+            int repeat = count(counter, min);
+            chain(t);
+            emit(Program.JMP, repeat, 0, 0, null);
+            patchY(repeat, size);
+            return;
+        }
+
+        if (counter == -1) {
+            for (int i = 0; i < min; i++) {
+                chain(t);
+            }
+
+            if (max == min)
+                return;
+        }
+
+        int start = size;
+        int register = 2 * captureCount + registerCount++;
+        List<Integer> exits = new ArrayList<>();
+
+        if (counter != -1) {
+            int repeat = count(counter, max);
+            int mandatory = (min > 0) ? emit(Program.MANDATORY, min, 0, counter, null) : -1;
+            start = emit(Program.SPLIT, 0, 0, 0, null);
+            exits.add(start);
+            setPreference(start, emit(Program.SAVE, 0, 0, register, null), greedy);
+            if (mandatory != -1) {
+                patchY(mandatory, size);
+                chain(t);
+                emit(Program.MANDATORY, min, repeat, counter, null);
+            } else {
+                chain(t);
+            }
+            exits.add(emit(Program.LOOP, repeat, 0, register, null));
+            patchY(repeat, size);
+        } else if (max == -1) {
+            int split = emit(Program.SPLIT, 0, 0, 0, null);
+            int body = emit(Program.SAVE, 0, 0, register, null);
+            chain(t);
+            exits.add(emit(Program.LOOP, split, 0, register, null));
+            exits.add(split);
+            setPreference(split, body, greedy);
+        } else {
+            for (int i = min; i < max; i++) {
+                int split = emit(Program.SPLIT, 0, 0, 0, null);
+                exits.add(split);
+
+                if (i == max - 1) {
+                    setPreference(split, size, greedy);
+                    chain(t);
+                } else {
+                    setPreference(split, emit(Program.SAVE, 0, 0, register, null), greedy);
+                    chain(t);
+                    exits.add(emit(Program.LOOP, size + 1, 0, register, null));
+                }
+            }
+        }
+
+        for (int exit : exits) {
+            if (op[exit] == Program.LOOP || greedy)
+                patchY(exit, size);
+            else
+                patchX(exit, size);
+        }
+
+        if (!nullable(start + 1, register)) {
+            for (int pc = start; pc < size; pc++) {
+                if (op[pc] == Program.SAVE && n[pc] == register) {
+                    op[pc] = Program.JMP;
+                    x[pc] = pc + 1;
+                } else if (op[pc] == Program.LOOP && n[pc] == register) {
+                    op[pc] = Program.JMP;
+                }
+            }
+
+            if (register == 2 * captureCount + registerCount - 1) // unless a nested quantifier kept a later one
+                registerCount--;
+        }
+    }
+
+    // the counter starts at 0 and the REPEAT ends the loop it starts once it reached limit (-1 for none)
+    private int count(int counter, int limit) throws RegexException {
+        emit(Program.COUNT, 0, 0, counter, null);
+        return emit(Program.REPEAT, limit, 0, counter, null);
+    }
+
+    // The number of instructions the tokens compile to.  They are compiled once to find out and dropped again, and
+    // the count is kept for the copies: the tokens of nested quantifiers are only compiled to be counted once.
+    // The optional iterations of quantifiers and the alternates start with a SPLIT.
+    private int size(Token t) throws RegexException {
+        Integer ret = sizes.get(t);
+        if (ret != null)
+            return ret;
+
+        int start = size;
+        int registers = registerCount;
+        chain(t);
+        ret = size - start;
+        for (int pc = start; pc < size; pc++) {
+            if (op[pc] == Program.SPLIT)
+                choices.add(t);
+        }
+
+        size = start;
+        registerCount = registers;
+        for (Iterator<Integer> it = lookarounds.keySet().iterator(); it.hasNext(); ) {
+            if (it.next() >= start)
+                it.remove();
+        }
+
+        sizes.put(t, ret);
+        return ret;
+    }
+
+    // Atomic groups try their alternates in order, and once one matches the others (and the untried alternates
+    // inside the one that matched) are dropped
+    void atomic(Iterator<Token> alts) throws RegexException {
+        int register = mark();
+        alternate(alts);
+        emit(Program.CUT, 0, 0, register, null);
+    }
+
+    // Possessive quantifiers are greedy quantifiers in an atomic group: they don't give back any of the iterations
+    // they matched
+    void possessive(Token t, int min, int max) throws RegexException {
+        int register = mark();
+        repeat(t, min, max, true);
+        emit(Program.CUT, 0, 0, register, null);
+    }
+
+    // A look around matches its tokens from the text position (backwards for a look behind) and goes back to that
+    // position.  Like an atomic group, once its tokens matched their untried alternates are dropped.
+    // It continues with then if the tokens matched and with otherwise if they didn't, null fails instead, ex: a
+    // positive look ahead is lookaround(t, false, NullToken.Instance, null).
+    void lookaround(Token t, boolean behind, Token then, Token otherwise) throws RegexException {
+        int start = size;
+        int mark = mark();
+        int split = (otherwise != null) ? emit(Program.SPLIT, size + 1, 0, 0, null) : -1;
+        int position = (then != null) ? register() : -1;
+
+        if (then != null)
+            emit(Program.SAVE, 0, 0, position, null);
+
+        boolean saved = backward;
+        backward = behind;
+        chain(t);
+        backward = saved;
+
+        if (then == null) {
+            emit(Program.CUT, 0, 0, mark, null);
+            emit(Program.FAIL, 0, 0, 0, null);
+        } else {
+            emit(Program.REWIND, 0, 0, position, null);
+            lookarounds.put(start, size);
+            emit(Program.CUT, 0, 0, mark, null);
+            chain(then);
+        }
+
+        if (otherwise != null) {
+            int jump = (then != null) ? emit(Program.JMP, 0, 0, 0, null) : -1;
+            patchY(split, size);
+            chain(otherwise);
+            if (jump != -1)
+                patchX(jump, size);
+        }
+    }
+
+    private int register() {
+        return 2 * captureCount + registerCount++;
+    }
+
+    private int mark() throws RegexException {
+        if (!backtracking)
+            throw new RegexException("Atomic groups and look arounds can only be compiled for the Backtracker");
+
+        int register = register();
+        emit(Program.MARK, 0, 0, register, null);
+
+        return register;
+    }
+
+    // Can the quantified tokens that start right after the SAVE at pc reach the LOOP for register without consuming
+    // a character?
+    private boolean nullable(int pc, int register) {
+        boolean[] seen = new boolean[size];
+        List<Integer> todo = new ArrayList<>();
+        todo.add(pc);
+
+        while (!todo.isEmpty()) {
+            pc = todo.remove(todo.size() - 1);
+            if (pc >= size || seen[pc])
+                continue;
+            seen[pc] = true;
+
+            switch (op[pc]) {
+                case Program.LOOP:
+                    if (n[pc] == register)
+                        return true;
+                    todo.add(x[pc]);
+                    todo.add(y[pc]);
+                    break;
+                case Program.JMP:
+                    todo.add(x[pc]);
+                    break;
+                case Program.SPLIT:
+                    todo.add(x[pc]);
+                    todo.add(y[pc]);
+                    break;
+                case Program.REPEAT:
+                case Program.MANDATORY:
+                    todo.add(pc + 1);
+                    todo.add(y[pc]);
+                    break;
+                case Program.MARK:
+                    if (lookarounds.containsKey(pc)) // doesn't consume text, whatever its tokens matched
+                        todo.add(lookarounds.get(pc));
+                    todo.add(pc + 1);
+                    break;
+                case Program.SAVE:
+                case Program.ASSERT:
+                case Program.BACKREF: // the group could have captured the empty string
+                case Program.CUT:
+                case Program.REWIND:
+                case Program.COUNT:
+                    todo.add(pc + 1);
+                    break;
+            }
+        }
+
+        return false;
+    }
+
+    // Greedy quantifiers prefer another iteration of the quantified token, non greedy ones prefer to leave
+    private void setPreference(int split, int body, boolean greedy) {
+        if (greedy)
+            patchX(split, body);
+        else
+            patchY(split, body);
+    }
+}
@@ -0,0 +1,16 @@
+package org.yucs.spotter.regex;
+
+// Continuation is the nextStack of a Matcher: the Tokens that are left to match once the current expression is done,
+// the one to match first at the head.
+// It is an immutable linked list, so saving the nextStack keeps a reference to it and restoring it puts the
+// reference back, whatever was pushed and popped in between.  A push shares the list it is pushed on.
+
+final class Continuation {
+    final Token token;
+    final Continuation rest;
+
+    Continuation(Token token, Continuation rest) {
+        this.token = token;
+        this.rest = rest;
+    }
+}
@@ -3,7 +3,7 @@ package org.yucs.spotter.regex;
 /*
  * Dynamically inserted into the nextStack when a start captureToken is executed
  * If reached, captures the state between start_pos (where StartCaptureToken was) and current text position
- * If we fail matching after it, revert the capture, by popping it off the capture stack.
+ * If we fail matching after it, revert the capture, by undoing it in the matcher.
  */
 
 class EndCaptureToken extends Token {
@@ -17,7 +17,9 @@ class EndCaptureToken extends Token {
 
     @Override
     boolean match(Matcher m) throws RegexException {
-        m.pushGroup(capture, m.getText().substring(start_pos, m.getTextPosition()));
+        // in a look behind the text is matched backwards and the capture ends before it starts
+        int pos = m.getTextPosition();
+        m.pushGroup(capture, Math.min(start_pos, pos), Math.max(start_pos, pos));
 
         if (next.match(m))
             return true;
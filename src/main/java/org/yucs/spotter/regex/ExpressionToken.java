@@ -26,6 +26,40 @@ abstract class ExpressionToken extends Token {
         alts.addAll(newAlts);
     }
 
+    // whichever alternate matches goes through the anchor
+    @Override
+    boolean anchors(char anchor) {
+        boolean all = !alts.isEmpty();
+        for (Token t : alts) {
+            all = all && t.anchors(anchor);
+        }
+
+        return all || next.anchors(anchor);
+    }
+
+    @Override
+    int minLength() {
+        int min = alts.isEmpty() ? 0 : Integer.MAX_VALUE;
+        for (Token t : alts) {
+            min = Math.min(min, t.minLength());
+        }
+
+        return addMinLengths(min, next.minLength());
+    }
+
+    @Override
+    int maxLength() {
+        int max = 0;
+        for (Token t : alts) {
+            int length = t.maxLength();
+            if (length == -1)
+                return -1;
+            max = Math.max(max, length);
+        }
+
+        return addLengths(max, next.maxLength());
+    }
+
     @Override
     Token reverse() throws RegexException {
         internalReverse();
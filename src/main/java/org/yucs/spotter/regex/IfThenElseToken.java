@@ -1,7 +1,5 @@
 package org.yucs.spotter.regex;
 
-import java.util.Stack;
-
 // Provides logic structure within a regex to determine which part of a regex will be martched against
 // If the ifToken is matchable from current text position, we try to match the thenToken, otherwise we match the elseToken
 
@@ -22,7 +20,7 @@ class IfThenElseToken extends Token {
     @Override
     boolean match(Matcher m) throws RegexException {
         // Empty stack for if clause, as only the tokens within it define true/false for the then/else clauses
-        Stack<Token> savedStack = m.saveAndResetNextStack();
+        Continuation savedStack = m.saveAndResetNextStack();
         boolean ret = ifToken.match(m);
 
         // stack is returned for then/else clause as they continue matching next tokens.
@@ -35,7 +33,14 @@ class IfThenElseToken extends Token {
             exec = elseToken;
         }
 
-        return exec.match(m);
+        // the tokens after the conditional follow the then/else clause
+        savedStack = m.saveNextStack();
+        m.pushNextStack(next);
+        if (exec.match(m))
+            return true;
+
+        m.restoreNextStack(savedStack);
+        return false;
     }
 
     @Override
@@ -44,4 +49,9 @@ class IfThenElseToken extends Token {
 
         return super.reverse(cur);
     }
-}
\ No newline at end of file
+
+    @Override
+    void compile(Compiler c) throws RegexException {
+        ((TestableToken) ifToken).compileCondition(c, thenToken, elseToken);
+    }
+}
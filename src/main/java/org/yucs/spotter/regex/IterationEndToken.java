@@ -0,0 +1,20 @@
+package org.yucs.spotter.regex;
+
+/*
+ * Pushed onto the nextStack by a QuantifierToken before each iteration of the quantified token.
+ * If reached, the iteration matched: the quantifier counts it and goes on with the next iteration (or what follows it).
+ * There is one per QuantifierToken, whatever the number of iterations, as the count is kept in the Matcher.
+ */
+
+class IterationEndToken extends Token {
+    final private QuantifierToken quantifier;
+
+    IterationEndToken(QuantifierToken quantifier) {
+        this.quantifier = quantifier;
+    }
+
+    @Override
+    boolean match(Matcher m) throws RegexException {
+        return quantifier.iterated(m);
+    }
+}
@@ -0,0 +1,460 @@
+package org.yucs.spotter.regex;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// LazyDFA answers if a Program matches a text (no capture groups) by running a DFA over it.
+// The DFA isn't built up front (it could be exponential in the size of the Program), a DFA state is the set of
+// Program instructions the PikeVM would have threads on, and states and their transitions are created the first time
+// the text reaches them.  After that, matching a character is a single array lookup.
+//
+// The states are kept in a cache that is limited to cacheSize bytes.  When it's full the cache is cleared and the
+// states are created again as they are needed.  If that happens too often (the states aren't being reused) the DFA
+// gives up and the caller has to use another engine.
+//
+// Anchors can't always be resolved when a state is created, $ and \b depend on the character that follows.  Those
+// stay in the state as pending instructions, resolved when the next character (or the end of the text) is seen.
+// The category of the last character (for \b) is part of the state when the Program has word break anchors.
+//
+// Besides true/false, the DFA can find where a match is (see searchEnd() and searchStart()):
+//  - the instructions of a state are in priority order, and a MATCH drops the lower priority ones (like the PikeVM
+//    does), so the last match end seen is the end of the match the PikeVM would find.  Unless longest is set, in
+//    which case nothing is dropped and the last match end seen is the end of the longest match.
+//  - an anchored DFA only starts a thread at the first position of the text it runs over
+//  - a reverse DFA runs the Program from Compiler.compileReverse() from right to left, ^ and $ swap places
+
+class LazyDFA {
+    static final int DEFAULT_CACHE_SIZE = 1 << 21;
+
+    static final int MATCH = 1;
+    static final int NO_MATCH = -1;
+    static final int GAVE_UP = -2;
+
+    // a state's transitions to non ascii characters are kept in a map, approximate memory of one such entry
+    private static final int UNICODE_TRANSITION_SIZE = 48;
+    private static final int STATE_SIZE = 64 + 4 * 128;
+
+    // after clearing a full cache, at least this many characters per created state have to be matched, or the
+    // states aren't being reused enough for the DFA to be worth it
+    private static final int MIN_CHARS_PER_STATE = 10;
+
+    // state flags
+    private static final int FLAG_INITIAL = 1;     // no character has been read yet
+    private static final int FLAG_MATCHED = 2;     // a match ended right before the last character
+    private static final int FLAG_ALPHA = 4;       // the last character is alphabetic (for \b)
+    private static final int FLAG_SPACE = 8;       // the last character is whitespace (for \b)
+    private static final int FLAG_TEXT_START = 16; // with FLAG_INITIAL, there is no character before this position
+    private static final int FLAG_FOUND = 32;      // a match was seen, threads starting later have a lower priority
+
+    // the following character for resolving the anchors in closure(), -1 is the end of the text
+    private static final int NEXT_UNKNOWN = -2;
+
+    private static final int[] EMPTY = new int[0];
+
+    private final Program prog;
+    final int cacheSize;
+    private final boolean anchored;
+    private final boolean longest;
+    private final boolean reverse;
+    private final boolean wordBreaks;
+    private final boolean restarts;
+
+    private final Map<State, State> cache = new HashMap<>();
+    private int cacheUsed = 0;
+
+    // the characters read and states created since the cache was last cleared during the current search
+    private int resetAt;
+    private int statesAtReset;
+
+    // scratch space for building the instruction list of new states.  sparse/dense is the set of instructions
+    // visited by closure(), list holds the ones that are part of the state in the order they were found.
+    private final int[] sparse;
+    private final int[] dense;
+    private int denseSize;
+    private final int[] list;
+    private int listSize;
+    private int[] stack;
+
+    LazyDFA(Program prog, int cacheSize) {
+        this(prog, cacheSize, false, false, false);
+    }
+
+    LazyDFA(Program prog, int cacheSize, boolean anchored, boolean longest, boolean reverse) {
+        this.prog = prog;
+        this.cacheSize = cacheSize;
+        this.anchored = anchored;
+        this.longest = longest;
+        this.reverse = reverse;
+
+        boolean b = false;
+        for (int pc = 0; pc < prog.size; pc++) {
+            if (prog.op[pc] == Program.ASSERT && (prog.n[pc] == 'b' || prog.n[pc] == 'B'))
+                b = true;
+        }
+        wordBreaks = b;
+
+        sparse = new int[prog.size];
+        dense = new int[prog.size];
+        list = new int[prog.size];
+        stack = new int[prog.size];
+
+        restarts = !anchored && canStart();
+    }
+
+    /**
+     * @return MATCH or NO_MATCH if text matches the Program (same start positions as Matcher), GAVE_UP if the
+     * state cache was thrashing
+     */
+    int match(String text) {
+        State s = begin(FLAG_INITIAL | FLAG_TEXT_START);
+
+        for (int i = 0; i < text.length(); i++) {
+            State t = next(s, text.charAt(i), i);
+
+            if (t == null)
+                return GAVE_UP;
+
+            if ((t.flags & FLAG_MATCHED) != 0 || t.match)
+                return MATCH;
+
+            if (t.dead)
+                return NO_MATCH;
+
+            s = t;
+        }
+
+        return matchAtEnd(s) ? MATCH : NO_MATCH;
+    }
+
+    /**
+     * @return where the match found in text ends, NO_MATCH if there is none or GAVE_UP if the state cache was
+     * thrashing
+     */
+    int searchEnd(String text) {
+        State s = begin(FLAG_INITIAL | FLAG_TEXT_START);
+        int end = NO_MATCH;
+
+        for (int i = 0; i < text.length(); i++) {
+            State t = next(s, text.charAt(i), i);
+
+            if (t == null)
+                return GAVE_UP;
+
+            if ((t.flags & FLAG_MATCHED) != 0)
+                end = i;
+
+            if (t.dead)
+                return end;
+
+            s = t;
+        }
+
+        return matchAtEnd(s) ? text.length() : end;
+    }
+
+    /**
+     * Runs a reverse DFA from end towards the start of text
+     *
+     * @return where the match that ends at end starts (the smallest such position for a longest DFA), NO_MATCH if
+     * there is none or GAVE_UP if the state cache was thrashing
+     */
+    int searchStart(String text, int end) {
+        int flags = FLAG_INITIAL;
+        if (end == text.length())
+            flags |= FLAG_TEXT_START;
+        else
+            flags |= category(text.charAt(end));
+
+        State s = begin(flags);
+        int start = NO_MATCH;
+
+        for (int i = end - 1; i >= 0; i--) {
+            State t = next(s, text.charAt(i), end - 1 - i);
+
+            if (t == null)
+                return GAVE_UP;
+
+            if ((t.flags & FLAG_MATCHED) != 0)
+                start = i + 1;
+
+            if (t.dead)
+                return start;
+
+            s = t;
+        }
+
+        return matchAtEnd(s) ? 0 : start;
+    }
+
+    private State begin(int flags) {
+        resetAt = 0;
+        statesAtReset = cache.size();
+
+        return intern(new State(EMPTY, flags));
+    }
+
+    // the state reached from s by reading c, the read'th character of the search.  null if the DFA gives up.
+    private State next(State s, char c, int read) {
+        State t = (c < 128) ? s.next[c] : s.unicodeNext(c);
+
+        if (t == null) {
+            if (cacheUsed > cacheSize) {
+                // not enough progress since the last time the cache was cleared
+                if (read - resetAt < MIN_CHARS_PER_STATE * (cache.size() - statesAtReset))
+                    return null;
+
+                cache.clear();
+                cacheUsed = 0;
+                s = intern(new State(s.insts, s.flags));
+                resetAt = read;
+                statesAtReset = cache.size();
+            }
+
+            t = transition(s, c);
+
+            if (c < 128) {
+                s.next[c] = t;
+            } else {
+                s.setUnicodeNext(c, t);
+                cacheUsed += UNICODE_TRANSITION_SIZE;
+            }
+        }
+
+        return t;
+    }
+
+    private State intern(State s) {
+        State cached = cache.get(s);
+        if (cached != null)
+            return cached;
+
+        cache.put(s, s);
+        cacheUsed += STATE_SIZE + 4 * s.insts.length;
+
+        for (int pc : s.insts) {
+            if (prog.op[pc] == Program.MATCH)
+                s.match = true;
+        }
+
+        // without threads and without a new thread starting at the next position, the state can never match
+        s.dead = s.insts.length == 0 && (!restarts || (s.flags & FLAG_FOUND) != 0);
+
+        return s;
+    }
+
+    // Can a thread starting after the first position match?  Not if all its paths need ^, or $ (as the position
+    // after the last character isn't a start position)
+    private boolean canStart() {
+        clear();
+        closure(0, false, 0, NEXT_UNKNOWN);
+
+        for (int i = 0; i < listSize; i++) {
+            if (prog.op[list[i]] != Program.ASSERT || prog.n[list[i]] != '$')
+                return true;
+        }
+
+        return false;
+    }
+
+    private boolean injects(State s) {
+        if (anchored)
+            return (s.flags & FLAG_INITIAL) != 0;
+
+        return (s.flags & FLAG_FOUND) == 0;
+    }
+
+    // The state reached from s by reading c:
+    //  - resolve the pending anchors of s now that the next character is known, and add a thread starting here
+    //  - step the CHAR instructions that match c, up to the first MATCH unless looking for the longest match
+    //  - follow the instructions that don't consume text from there
+    private State transition(State s, char c) {
+        int before = before(s.flags);
+        boolean atStart = (s.flags & FLAG_TEXT_START) != 0;
+
+        clear();
+        for (int pc : s.insts) {
+            closure(pc, atStart, before, c);
+        }
+        if (injects(s))
+            closure(0, atStart, before, c);
+
+        int[] current = Arrays.copyOf(list, listSize);
+
+        boolean matched = false;
+        clear();
+
+        for (int pc : current) {
+            if (prog.op[pc] == Program.MATCH) {
+                matched = true;
+                if (!longest)
+                    break;
+            } else if (prog.op[pc] == Program.CHAR && prog.cls[pc].match(c)) {
+                closure(pc + 1, false, c, NEXT_UNKNOWN);
+            }
+        }
+
+        int flags = category(c);
+        if (matched)
+            flags |= FLAG_MATCHED | FLAG_FOUND;
+        else
+            flags |= s.flags & FLAG_FOUND;
+
+        return intern(new State(Arrays.copyOf(list, listSize), flags));
+    }
+
+    private boolean matchAtEnd(State s) {
+        if (s.matchAtEnd == 0) {
+            boolean atStart = (s.flags & FLAG_TEXT_START) != 0;
+
+            clear();
+            if ((s.flags & FLAG_INITIAL) != 0)
+                closure(0, atStart, before(s.flags), -1);
+            for (int pc : s.insts) {
+                closure(pc, atStart, before(s.flags), -1);
+            }
+
+            s.matchAtEnd = -1;
+            for (int i = 0; i < listSize; i++) {
+                if (prog.op[list[i]] == Program.MATCH)
+                    s.matchAtEnd = 1;
+            }
+        }
+
+        return s.matchAtEnd == 1;
+    }
+
+    private int category(char c) {
+        if (wordBreaks) {
+            if (Character.isAlphabetic(c))
+                return FLAG_ALPHA;
+            else if (Character.isWhitespace(c))
+                return FLAG_SPACE;
+        }
+
+        return 0;
+    }
+
+    // a character standing in for the category of the last character read, for AnchorToken.wordBreak()
+    private int before(int flags) {
+        if ((flags & FLAG_TEXT_START) != 0)
+            return -1;
+        if ((flags & FLAG_ALPHA) != 0)
+            return 'a';
+        if ((flags & FLAG_SPACE) != 0)
+            return ' ';
+        return '0';
+    }
+
+    private void clear() {
+        denseSize = 0;
+        listSize = 0;
+    }
+
+    // adds the CHAR, MATCH and unresolved ASSERT instructions reachable from pc without consuming text to list
+    private void closure(int pc, boolean atStart, int before, int next) {
+        int top = 0;
+        stack[top++] = pc;
+
+        while (top > 0) {
+            pc = stack[--top];
+
+            while (true) {
+                int i = sparse[pc];
+                if (i < denseSize && dense[i] == pc)
+                    break;
+                sparse[pc] = denseSize;
+                dense[denseSize++] = pc;
+
+                switch (prog.op[pc]) {
+                    case Program.JMP:
+                        pc = prog.x[pc];
+                        continue;
+
+                    case Program.SPLIT:
+                    case Program.LOOP:
+                        if (top == stack.length)
+                            stack = Arrays.copyOf(stack, top * 2);
+                        stack[top++] = prog.y[pc];
+                        pc = prog.x[pc];
+                        continue;
+
+                    case Program.SAVE:
+                        pc++;
+                        continue;
+
+                    case Program.ASSERT:
+                        char anchor = (char) prog.n[pc];
+                        if (reverse && (anchor == '^' || anchor == '$'))
+                            anchor = (anchor == '^') ? '$' : '^';
+
+                        if (anchor == '^') {
+                            if (!atStart)
+                                break;
+                        } else if (next == NEXT_UNKNOWN) {
+                            add(pc);
+                            break;
+                        } else if (anchor == '$') {
+                            if (next != -1)
+                                break;
+                        } else if (AnchorToken.wordBreak(before, next) != (anchor == 'b')) {
+                            break;
+                        }
+                        pc++;
+                        continue;
+
+                    default: // CHAR and MATCH
+                        add(pc);
+                }
+
+                break;
+            }
+        }
+    }
+
+    private void add(int pc) {
+        list[listSize++] = pc;
+    }
+
+    static final class State {
+        final int[] insts;
+        final int flags;
+
+        final State[] next = new State[128];
+        private Map<Character, State> unicodeNext;
+
+        boolean match;
+        boolean dead;
+        int matchAtEnd; // 0 unknown, 1 matches, -1 doesn't
+
+        State(int[] insts, int flags) {
+            this.insts = insts;
+            this.flags = flags;
+        }
+
+        State unicodeNext(char c) {
+            return (unicodeNext == null) ? null : unicodeNext.get(c);
+        }
+
+        void setUnicodeNext(char c, State s) {
+            if (unicodeNext == null)
+                unicodeNext = new HashMap<>();
+            unicodeNext.put(c, s);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            State that = (State) o;
+
+            return flags == that.flags && Arrays.equals(insts, that.insts);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * flags + Arrays.hashCode(insts);
+        }
+    }
+}
@@ -1,7 +1,5 @@
 package org.yucs.spotter.regex;
 
-import java.util.Stack;
-
 // Positive and Negative Lookahead matching
 // Determines if something is matchable (or not) in the forward direction from this location
 // state is reset after the attempted match
@@ -20,7 +18,7 @@ class LookAheadExpressionToken extends Token implements TestableToken {
         int pos = m.getTextPosition();
 
         // Empty stack as only matters that its string of tokens match
-        Stack<Token> savedState = m.saveAndResetNextStack();
+        Continuation savedState = m.saveAndResetNextStack();
 
         boolean ret = t.match(m);
 
@@ -37,4 +35,36 @@ class LookAheadExpressionToken extends Token implements TestableToken {
 
         return next.match(m);
     }
-}
\ No newline at end of file
+
+    @Override
+    void compile(Compiler c) throws RegexException {
+        if (positive)
+            c.lookaround(t, false, NullToken.Instance, null);
+        else
+            c.lookaround(t, false, null, NullToken.Instance);
+    }
+
+    @Override
+    public void compileCondition(Compiler c, Token then, Token otherwise) throws RegexException {
+        if (positive)
+            c.lookaround(t, false, then, otherwise);
+        else
+            c.lookaround(t, false, otherwise, then);
+    }
+
+    // doesn't consume any text, the match starts with what follows it
+    @Override
+    AhoCorasick literals() {
+        return next.literals();
+    }
+
+    @Override
+    int minLength() {
+        return next.minLength();
+    }
+
+    @Override
+    int maxLength() {
+        return next.maxLength();
+    }
+}
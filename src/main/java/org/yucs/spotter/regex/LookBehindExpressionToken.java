@@ -4,31 +4,35 @@ package org.yucs.spotter.regex;
 // Determines if something is matchable (or not) in the backwards direction from this location
 // state is reset after the attempted match
 
-import java.util.Stack;
-
 class LookBehindExpressionToken extends Token implements TestableToken {
     final private NormalExpressionToken t;
     final private boolean positive;
+    final private int minLength; // t can't match closer than this to the start of the text
 
     LookBehindExpressionToken(NormalExpressionToken net, boolean p) {
         t = net;
         positive = p;
+        minLength = net.minLength();
     }
 
     @Override
     boolean match(Matcher m) throws RegexException {
         int pos = m.getTextPosition();
-        m.setDirection(-1);
+        boolean ret = false;
+
+        if (pos >= minLength) {
+            m.setDirection(-1);
 
-        // Empty stack as only matters that its string of tokens match
-        Stack<Token> savedState = m.saveAndResetNextStack();
+            // Empty stack as only matters that its string of tokens match
+            Continuation savedState = m.saveAndResetNextStack();
 
-        boolean ret = t.match(m);
+            ret = t.match(m);
 
-        m.restoreNextStack(savedState);
+            m.restoreNextStack(savedState);
 
-        m.setDirection(1);
-        m.setTextPosition(pos);
+            m.setDirection(1);
+            m.setTextPosition(pos);
+        }
 
         if (positive) {
             if (!ret)
@@ -40,4 +44,36 @@ class LookBehindExpressionToken extends Token implements TestableToken {
 
         return next.match(m);
     }
+
+    @Override
+    void compile(Compiler c) throws RegexException {
+        if (positive)
+            c.lookaround(t, true, NullToken.Instance, null);
+        else
+            c.lookaround(t, true, null, NullToken.Instance);
+    }
+
+    @Override
+    public void compileCondition(Compiler c, Token then, Token otherwise) throws RegexException {
+        if (positive)
+            c.lookaround(t, true, then, otherwise);
+        else
+            c.lookaround(t, true, otherwise, then);
+    }
+
+    // doesn't consume any text, the match starts with what follows it
+    @Override
+    AhoCorasick literals() {
+        return next.literals();
+    }
+
+    @Override
+    int minLength() {
+        return next.minLength();
+    }
+
+    @Override
+    int maxLength() {
+        return next.maxLength();
+    }
 }
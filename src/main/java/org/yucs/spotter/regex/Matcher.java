@@ -4,37 +4,104 @@ import java.util.*;
 
 @SuppressWarnings("WeakerAccess")
 public class Matcher {
-    private Map<Integer, Stack<String>> groups;
+    // The groups of the last match are offsets in the text, the start and end of group i at 2 * i and 2 * i + 1 (-1
+    // for a group that wasn't captured), the Strings are only made for getGroup() and getGroups().
+    // While the Tokens match, each capture logs the offsets it replaced (group, start, end), so that a capture that
+    // is backtracked over restores them.
+    private int[] captures;
+    private int[] undo = new int[24];
+    private int undoSize = 0;
+    private int[] slots; // the capture slots of the Program matches, kept from match to match
     private String text;
     private int text_pos;
 
     final private int parenCount;
     final private Map<Integer, NormalExpressionToken> captureMap;
+
+    // the iterations the current entry into each QuantifierToken matched, and where its optional iterations started
+    // (see QuantifierToken)
+    private final int[] iterations;
+    private final List<Set<Integer>> iterationStarts;
     private int direction = 1;
 
     private final Token t;
+    private final Prefilter prefilter; // where the matches of t can start
+
+    // null when the regex can only be matched by the Token graph
+    private final Regex regex;
+    private PikeVM pikeVM;
+    private Backtracker backtracker;
+    private final Program backtrackProgram;
+    private PrecompiledRegex compiled; // the instance of the Regex's BytecodeCompiler class
+    private PrecompiledRegex precompiled;
+    private Matcher tokenized; // for the texts the PrecompiledRegex hands back to the Tokens
+
+    Continuation nextStack; // null when nothing is left to match
 
-    Stack<Token> nextStack;
+    // false for the Matcher of Regex.match(), which only tells if the text matches: the Tokens and the Backtracker
+    // only capture the groups that back references, conditions and recursions read, and the groups aren't filled in
+    private final boolean capturing;
+    private final boolean resetGroups; // if the Tokens capture groups, which each start position starts without
 
+    // matches with the Token graph only
     Matcher(Tokenizer tokenizer) throws RegexException {
-        t = tokenizer.tokenize();
-        parenCount = tokenizer.captureCount;
-        captureMap = tokenizer.captureMap;
+        this(tokenizer, null, true);
+    }
+
+    Matcher(Regex regex) throws RegexException {
+        this(regex, true);
+    }
+
+    Matcher(Regex regex, boolean capturing) throws RegexException {
+        this(regex.tokenizer,
+                (regex.program != null || regex.backtrackProgram != null || regex.precompiled != null) ? regex : null,
+                capturing);
+    }
+
+    // a precompiled Regex has no tokenizer
+    private Matcher(Tokenizer tokenizer, Regex regex, boolean capturing) throws RegexException {
+        if (tokenizer == null) {
+            t = null;
+            prefilter = null;
+            parenCount = regex.precompiled.captureCount;
+            captureMap = new HashMap<>();
+            resetGroups = true;
+            iterations = new int[0];
+        } else {
+            if (!capturing && (regex == null || regex.backtrackProgram != null))
+                tokenizer = tokenizer.captureFree();
+
+            t = tokenizer.tokenize();
+            prefilter = new Prefilter(t);
+            parenCount = tokenizer.captureCount;
+            captureMap = tokenizer.captureMap;
+            resetGroups = capturing || !tokenizer.referenced.isEmpty();
+            iterations = new int[tokenizer.quantifierCount];
+        }
+        iterationStarts = new ArrayList<>(Collections.<Set<Integer>>nCopies(iterations.length, null));
+        this.regex = regex;
+        this.capturing = capturing;
+
+        Program captureFree = (regex != null && regex.backtrackProgram != null && !capturing) ?
+                Compiler.compile(tokenizer, true) : null;
+        backtrackProgram = (captureFree != null) ? captureFree : (regex != null) ? regex.backtrackProgram : null;
     }
 
-    private Matcher(int parenCount,  Map<Integer, NormalExpressionToken> captureMap, Map<Integer, Stack<String>> groups, String text) {
+    private Matcher(int parenCount,  Map<Integer, NormalExpressionToken> captureMap, int[] captures, String text,
+                    int[] iterations, List<Set<Integer>> iterationStarts) {
         this.t = null;
+        this.prefilter = null;
+        this.regex = null;
+        this.backtrackProgram = null;
+        this.capturing = true;
+        this.resetGroups = true;
         this.parenCount = parenCount;
         this.captureMap = captureMap;
         this.text = text;
-        this.nextStack = new Stack<>();
-
-        this.groups = new HashMap<>();
-        for(int i=0; i < parenCount; i++) {
-            Stack<String> newStack = new Stack<>();
-            newStack.addAll(groups.get(i));
-            this.groups.put(i, newStack);
-        }
+        this.nextStack = null;
+        this.captures = captures.clone();
+        this.iterations = iterations.clone();
+        this.iterationStarts = new ArrayList<>(iterationStarts);
     }
 
     /**
@@ -45,17 +112,39 @@ public class Matcher {
      * @throws RegexException
      */
     public boolean match(String text) throws RegexException {
-        for(int i=0; i < text.length() || i == 0; i++) { //need to test empty text string too
-            groups = new HashMap<>();
-            for(int j=0; j < parenCount; j++) {
-                groups.put(j, new Stack<String>());
+        if (regex != null && regex.precompiled != null)
+            return precompiledMatch(text);
+
+        if (regex != null && regex.program != null)
+            return programMatch(text);
+
+        if (regex != null && regex.bytecode != null)
+            return bytecodeMatch(text);
+
+        if (regex != null)
+            return backtrackMatch(text);
+
+        int last = prefilter.last(text);
+        setGroups(text, null, false);
+
+        // the Prefilter also gives 0 for the empty text
+        for(int i = prefilter.next(text, 0, last); i != -1; i = prefilter.next(text, i + 1, last)) {
+
+            // groups that nothing captures stay empty, they can be kept from the matches before
+            if (captures == null) {
+                captures = new int[2 * parenCount];
+                Arrays.fill(captures, -1);
+            } else if (resetGroups) {
+                Arrays.fill(captures, -1);
             }
+            undoSize = 0;
             this.text = text;
-            this.nextStack = new Stack<>();
+            this.nextStack = null;
 
             text_pos = i;
             if (t.match(this)) {
-                groups.get(0).push(text.substring(i, text_pos));
+                if (capturing)
+                    pushGroup(0, i, text_pos);
                 return true;
             }
         }
@@ -63,6 +152,117 @@ public class Matcher {
         return false;
     }
 
+    // Matches with the OnePass or the PikeVM, which are linear in the length of text.
+    // When the Regex has DFAs for it, they find where the match is first (the forward DFA its end, the reverse DFA
+    // its start), so that the PikeVM only runs over the match, with a single thread start.
+    private boolean programMatch(String text) throws RegexException {
+        int[] slots = slots(regex.program.slotCount);
+        boolean ret;
+
+        if (!regex.program.prefilter.possible(text)) {
+            setGroups(text, slots, false);
+            return false;
+        }
+
+        if (regex.onePass != null) {
+            ret = regex.onePass.match(text, slots);
+            setGroups(text, slots, ret);
+            return ret;
+        }
+
+        if (pikeVM == null)
+            pikeVM = new PikeVM(regex.program);
+
+        LazyDFA reverseDFA = regex.reverseDFA();
+        int end = (reverseDFA != null) ? regex.dfa().searchEnd(text) : LazyDFA.GAVE_UP;
+        int start = (end >= 0) ? reverseDFA.searchStart(text, end) : LazyDFA.GAVE_UP;
+
+        if (end == LazyDFA.NO_MATCH)
+            ret = false;
+        else if (start >= 0 && pikeVM.search(text, slots, start, end, true))
+            ret = true;
+        else
+            ret = pikeVM.search(text, slots);
+
+        setGroups(text, slots, ret);
+        return ret;
+    }
+
+    private boolean backtrackMatch(String text) throws RegexException {
+        if (backtracker == null)
+            backtracker = new Backtracker(backtrackProgram);
+
+        int[] slots = slots(backtrackProgram.slotCount);
+        boolean ret = backtracker.search(text, slots, regex.backtrackMemo);
+        regex.backtracked(backtracker.steps, text.length());
+
+        setGroups(text, slots, ret);
+        return ret;
+    }
+
+    private boolean bytecodeMatch(String text) throws RegexException {
+        if (compiled == null)
+            compiled = regex.bytecode.newInstance();
+
+        int[] slots = slots(regex.bytecode.slotCount);
+        boolean ret = compiled.search(text, slots, regex.backtrackMemo);
+        regex.backtracked(compiled.steps, text.length());
+
+        setGroups(text, slots, ret);
+        return ret;
+    }
+
+    private boolean precompiledMatch(String text) throws RegexException {
+        boolean tokenize = regex.linearOnly || !regex.precompiled.fits(text, regex.backtrackMemo);
+        if (!capturing && tokenize)
+            return regex.tokenized().match(text);
+
+        if (tokenize) {
+            if (tokenized == null)
+                tokenized = regex.tokenized().Matcher();
+
+            boolean ret = tokenized.match(text);
+            this.text = text;
+            if (captures == null)
+                captures = new int[2 * parenCount];
+            System.arraycopy(tokenized.captures, 0, captures, 0, captures.length);
+            return ret;
+        }
+
+        if (precompiled == null)
+            precompiled = regex.precompiled.newInstance();
+
+        int[] slots = slots(regex.precompiled.slotCount);
+        boolean ret = precompiled.search(text, slots, regex.backtrackMemo);
+        regex.backtracked(precompiled.steps, text.length());
+
+        setGroups(text, slots, ret);
+        return ret;
+    }
+
+    // the Program engines only write the slots when they match, so the same array does for every match
+    private int[] slots(int count) {
+        if (slots == null || slots.length != count)
+            slots = new int[count];
+
+        return slots;
+    }
+
+    // copies the capture slots of a Program match into the groups
+    private void setGroups(String text, int[] slots, boolean matched) {
+        this.text = text;
+        if (!capturing)
+            return;
+
+        if (captures == null)
+            captures = new int[2 * parenCount];
+        for(int i=0; i < parenCount; i++) {
+            boolean captured = matched && slots[2 * i] != -1 && slots[2 * i + 1] != -1;
+            captures[2 * i] = captured ? slots[2 * i] : -1;
+            captures[2 * i + 1] = captured ? slots[2 * i + 1] : -1;
+        }
+    }
+
     /**
      * @return a List of all capture groups.  Groups captured will have a String, groups not captured will have a null
      */
@@ -70,11 +270,7 @@ public class Matcher {
         ArrayList<String> ret = new ArrayList<>(parenCount);
 
         for(int i=0; i < parenCount; i++) {
-            if (groups.get(i).size() == 0) {
-                ret.add(null);
-            } else {
-                ret.add(groups.get(i).peek());
-            }
+            ret.add(group(i));
         }
 
         return ret;
@@ -86,23 +282,67 @@ public class Matcher {
      * @throws RegexException
      */
     public String getGroup(int pos) throws RegexException {
-        if (pos >= groups.size())
+        if (pos >= parenCount)
             throw new RegexException("Group " + pos + " does not exit");
 
-        if (groups.get(pos).size() == 0)
-            return null;
+        return group(pos);
+    }
+
+    /**
+     * Copies where the capture groups of the last match are in the text, without making a String for them
+     *
+     * @param offsets where the offsets go: group i starts at offsets[2 * i] and ends at offsets[2 * i + 1], both are
+     *                -1 if the group wasn't executed in the match.  It needs room for all the groups.
+     * @return the number of capture groups, including the whole match
+     * @throws RegexException if offsets has no room for all the groups
+     */
+    public int getOffsets(int[] offsets) throws RegexException {
+        if (offsets.length < 2 * parenCount)
+            throw new RegexException("Need " + 2 * parenCount + " offsets for " + parenCount + " groups");
+
+        for(int i=0; i < 2 * parenCount; i++) {
+            offsets[i] = groupStart(i / 2) == -1 ? -1 : captures[i];
+        }
+
+        return parenCount;
+    }
 
-        return groups.get(pos).peek();
+    private String group(int pos) {
+        int start = groupStart(pos);
+        return (start == -1) ? null : text.substring(start, captures[2 * pos + 1]);
     }
 
-    void pushGroup(int paren, String rec) {
-        groups.get(paren).push(rec);
+    int groupCount() {
+        return parenCount;
+    }
+
+    // where the group starts, -1 if it wasn't captured
+    int groupStart(int pos) {
+        return (captures[2 * pos] == -1 || captures[2 * pos + 1] == -1) ? -1 : captures[2 * pos];
+    }
+
+    int groupEnd(int pos) {
+        return captures[2 * pos + 1];
+    }
+
+    void pushGroup(int paren, int start, int end) {
+        if (undoSize + 3 > undo.length)
+            undo = Arrays.copyOf(undo, 2 * undo.length);
+
+        undo[undoSize++] = paren;
+        undo[undoSize++] = captures[2 * paren];
+        undo[undoSize++] = captures[2 * paren + 1];
+
+        captures[2 * paren] = start;
+        captures[2 * paren + 1] = end;
     }
 
+    // undoes the last capture, which is the one of paren
     void popGroup(int paren) {
-        if (paren >= 0) {
-            if (groups.get(paren).size() > 0)
-                groups.get(paren).pop();
+        if (paren >= 0 && undoSize > 0 && undo[undoSize - 3] == paren) {
+            captures[2 * paren + 1] = undo[--undoSize];
+            captures[2 * paren] = undo[--undoSize];
+            undoSize--;
         }
     }
 
@@ -124,7 +364,7 @@ public class Matcher {
     }
 
     Matcher copy() {
-        Matcher m = new Matcher(parenCount, captureMap, groups, text);
+        Matcher m = new Matcher(parenCount, captureMap, captures, text, iterations, iterationStarts);
         m.setTextPosition(this.text_pos);
         m.nextStack = nextStack;
         return m;
@@ -135,40 +375,58 @@ public class Matcher {
         nextStack = m.nextStack;
     }
 
+    int getIterations(int quantifier) {
+        return iterations[quantifier];
+    }
+
+    void setIterations(int quantifier, int count) {
+        iterations[quantifier] = count;
+    }
+
+    Set<Integer> getIterationStarts(int quantifier) {
+        return iterationStarts.get(quantifier);
+    }
+
+    void setIterationStarts(int quantifier, Set<Integer> starts) {
+        iterationStarts.set(quantifier, starts);
+    }
+
     public int getDirection() { return direction; }
     public void setDirection(int i) { direction = i; }
 
-    Stack<Token> saveNextStack() {
-        Stack<Token> savedState = nextStack;
-        nextStack = new Stack<>();
-        nextStack.addAll(savedState);
-
-        return savedState;
+    // the nextStack doesn't change, saving it is keeping it
+    Continuation saveNextStack() {
+        return nextStack;
     }
 
-    Stack<Token> saveAndResetNextStack() {
-        Stack<Token> savedState = saveNextStack();
-        nextStack = new Stack<>();
+    Continuation saveAndResetNextStack() {
+        Continuation savedState = nextStack;
+        nextStack = null;
 
         return savedState;
     }
 
     void pushNextStack(Token t) {
-        nextStack.push(t);
+        nextStack = new Continuation(t, nextStack);
     }
 
-    Stack<Token> saveThenPushNextStack(Token t) {
-        Stack<Token> savedState = saveNextStack();
+    Continuation saveThenPushNextStack(Token t) {
+        Continuation savedState = saveNextStack();
         pushNextStack(t);
 
         return savedState;
     }
 
-    void restoreNextStack(Stack<Token> s) {
+    void restoreNextStack(Continuation s) {
         nextStack = s;
     }
 
     boolean matchNextStack() throws RegexException {
-        return nextStack.size() == 0 || nextStack.pop().match(this);
+        if (nextStack == null)
+            return true;
+
+        Token t = nextStack.token;
+        nextStack = nextStack.rest;
+        return t.match(this);
     }
 }
\ No newline at end of file
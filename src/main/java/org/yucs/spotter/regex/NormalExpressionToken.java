@@ -1,13 +1,21 @@
 package org.yucs.spotter.regex;
 
+import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.Stack;
+import java.util.List;
 
 // An Expression is a set of alternates
 // An alternate is a list of tokens that are matched in order
 // For an expression to be match, one of its alternates has to match
+//
+// When every alternate is a literal (ex: GET|POST|PUT) the alternates that match are looked up in an AhoCorasick trie
+// instead of trying each of them, and only those are continued from, in the order of the alternates.
 
 class NormalExpressionToken extends ExpressionToken {
+    private List<String> literalAlts;
+    private AhoCorasick literals;
+    private boolean literalsBuilt = false;
+
     @Override
     boolean match(Matcher m) throws RegexException {
         return internalMatch(m, true);
@@ -18,12 +26,31 @@ class NormalExpressionToken extends ExpressionToken {
     }
 
     private boolean internalMatch(Matcher m, boolean goNext) throws RegexException {
-        Iterator<Token> it = altIterator();
-
         int start = m.getTextPosition();
 
+        // the trie holds the literals forwards, a look behind matches them backwards
+        if (literalAlternates() != null && m.getDirection() == 1) {
+            for (int length : literals.lengths(m.getText(), start)) {
+                Continuation savedStack = m.saveNextStack();
+
+                if (goNext)
+                    m.pushNextStack(next);
+
+                m.setTextPosition(start + length);
+                if (m.matchNextStack())
+                    return true;
+
+                m.restoreNextStack(savedStack);
+                m.setTextPosition(start);
+            }
+
+            return false;
+        }
+
+        Iterator<Token> it = altIterator();
+
         while (it.hasNext()) {
-            Stack<Token> savedStack = m.saveNextStack();
+            Continuation savedStack = m.saveNextStack();
 
             if (goNext)
                 m.pushNextStack(next);
@@ -38,4 +65,86 @@ class NormalExpressionToken extends ExpressionToken {
 
         return false;
     }
+
+    // the trie of the alternates when there are several and all of them are literals, null otherwise
+    private AhoCorasick literalAlternates() {
+        if (!literalsBuilt) {
+            literalsBuilt = true;
+
+            List<String> alts = new ArrayList<>();
+            for (Iterator<Token> it = altIterator(); it.hasNext(); ) {
+                StringBuilder sb = new StringBuilder();
+                if (!it.next().literal(sb))
+                    return null;
+                alts.add(sb.toString());
+            }
+
+            if (alts.size() > 1) {
+                literalAlts = alts;
+                literals = new AhoCorasick(alts);
+            }
+        }
+
+        return literals;
+    }
+
+    // every match starts with one of the literal alternates, or with what the only alternate starts with
+    @Override
+    AhoCorasick literals() {
+        if (literalAlternates() != null)
+            return literals;
+
+        Iterator<Token> it = altIterator();
+        if (!it.hasNext())
+            return next.literals();
+
+        Token alt = it.next();
+
+        return !it.hasNext() ? alt.literals() : null;
+    }
+
+    @Override
+    void compile(Compiler c) throws RegexException {
+        if (literalAlternates() == null || !c.literals(literalAlts))
+            c.alternate(altIterator());
+    }
+
+    // only an expression without alternates is sure to start with its tokens' prefix
+    @Override
+    boolean prefix(StringBuilder sb) {
+        Iterator<Token> it = altIterator();
+        if (!it.hasNext())
+            return next.prefix(sb);
+
+        Token alt = it.next();
+
+        return !it.hasNext() && alt.prefix(sb) && next.prefix(sb);
+    }
+
+    @Override
+    boolean first(CharSet set) {
+        Iterator<Token> it = altIterator();
+        boolean empty = !it.hasNext();
+
+        while (it.hasNext()) {
+            if (it.next().first(set))
+                empty = true;
+        }
+
+        return empty && next.first(set);
+    }
+
+    // the literals of one alternate out of several aren't required
+    @Override
+    void required(StringBuilder run, List<String> runs) {
+        Iterator<Token> it = altIterator();
+        Token alt = it.hasNext() ? it.next() : NullToken.Instance;
+
+        if (it.hasNext())
+            endRun(run, runs);
+        else
+            alt.required(run, runs);
+
+        next.required(run, runs);
+    }
 }
\ No newline at end of file
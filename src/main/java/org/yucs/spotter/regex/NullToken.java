@@ -1,5 +1,7 @@
 package org.yucs.spotter.regex;
 
+import java.util.List;
+
 /*
  * NullToken is the Token that is at the end of all Complex Expressions
  * If this expression is consuming tokens, it will most likely have a token in the nextStack.
@@ -18,4 +20,39 @@ class NullToken extends Token {
     Token reverse() {
         return this;
     }
+
+    @Override
+    boolean literal(StringBuilder sb) {
+        return true;
+    }
+
+    @Override
+    boolean prefix(StringBuilder sb) {
+        return true;
+    }
+
+    @Override
+    boolean first(CharSet set) {
+        return true;
+    }
+
+    @Override
+    boolean anchors(char anchor) {
+        return false;
+    }
+
+    @Override
+    int minLength() {
+        return 0;
+    }
+
+    @Override
+    int maxLength() {
+        return 0;
+    }
+
+    // the run goes on with the tokens after the expression this one ends
+    @Override
+    void required(StringBuilder run, List<String> runs) {
+    }
 }
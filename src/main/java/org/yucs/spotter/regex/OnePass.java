@@ -0,0 +1,253 @@
+package org.yucs.spotter.regex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// OnePass matches anchored Programs where the next character always decides which alternate continues, ex:
+// ^(\d+)-(\w+)$.  For those the PikeVM never has more than one thread that can survive a step, so OnePass follows
+// that single thread and fills in the capture slots as it goes, without thread lists or copies of the slots.
+//
+// A node is the Program's start or one of its CHAR instructions.  When the OnePass is built, the instructions that
+// follow a node without consuming text are walked once, in the PikeVM's priority order, which gives:
+//  - the edges to the next nodes, each with its character class and the slots saved on the way
+//  - the slots saved on the way to a MATCH, before and at the end of the text
+// The Program is one pass if the character classes of every node's edges are disjoint.  Like in the PikeVM, the
+// edges that come after a MATCH are dropped, and the edges before it are preferred to that match.
+//
+// Programs that can start a match after the first position, have registers (quantifiers whose tokens can match the
+// empty string) or word break anchors are not one pass.
+
+class OnePass {
+    static final int MAX_NODES = 1000;
+
+    private final Node[] nodes;
+    private final int slotCount;
+
+    private OnePass(Node[] nodes, int slotCount) {
+        this.nodes = nodes;
+        this.slotCount = slotCount;
+    }
+
+    /**
+     * @return the OnePass for the Program or null if the Program isn't one pass
+     */
+    static OnePass build(Program prog) {
+        if (prog.registerCount != 0)
+            return null;
+
+        int[] index = new int[prog.size];
+        List<Integer> pcs = new ArrayList<>();
+        pcs.add(0);
+
+        for (int pc = 0; pc < prog.size; pc++) {
+            if (prog.op[pc] == Program.CHAR) {
+                index[pc] = pcs.size();
+                pcs.add(pc + 1);
+            } else if (prog.op[pc] == Program.ASSERT && prog.n[pc] != '^' && prog.n[pc] != '$') {
+                return null;
+            }
+        }
+
+        if (pcs.size() > MAX_NODES)
+            return null;
+
+        Closure closure = new Closure(prog, index);
+
+        // a thread started after the first position has to die on a ^ before reaching anything
+        closure.run(0, false, false);
+        if (closure.edges.size() != 0 || closure.match != null)
+            return null;
+
+        Node[] nodes = new Node[pcs.size()];
+
+        for (int i = 0; i < nodes.length; i++) {
+            boolean atStart = (i == 0);
+
+            closure.run(pcs.get(i), atStart, true);
+            int[] matchAtEnd = closure.match;
+
+            closure.run(pcs.get(i), atStart, false);
+
+            List<Edge> edges = closure.edges;
+            for (int j = 0; j < edges.size(); j++) {
+                for (int k = j + 1; k < edges.size(); k++) {
+                    if (edges.get(j).cls.intersects(edges.get(k).cls))
+                        return null;
+                }
+            }
+
+            nodes[i] = new Node(edges.toArray(new Edge[0]), closure.match, matchAtEnd);
+        }
+
+        return new OnePass(nodes, prog.slotCount);
+    }
+
+    /**
+     * Matches text from its first position
+     *
+     * @param slots filled with the capture group positions of the match
+     * @return if the text matched
+     */
+    boolean match(String text, int[] slots) {
+        int[] caps = new int[slotCount];
+        Arrays.fill(caps, -1);
+
+        boolean matched = false;
+        Node node = nodes[0];
+        int len = text.length();
+
+        for (int pos = 0; ; pos++) {
+            int[] match = (pos == len) ? node.matchAtEnd : node.match;
+            if (match != null) {
+                System.arraycopy(caps, 0, slots, 0, slotCount);
+                for (int slot : match) {
+                    slots[slot] = pos;
+                }
+                matched = true;
+            }
+
+            if (pos == len)
+                break;
+
+            Edge edge = node.edge(text.charAt(pos));
+            if (edge == null)
+                break;
+
+            for (int slot : edge.saves) {
+                caps[slot] = pos;
+            }
+            node = nodes[edge.target];
+        }
+
+        return matched;
+    }
+
+    private static class Node {
+        final Edge[] edges;
+        final byte[] ascii = new byte[128]; // index of the edge for an ascii character + 1, 0 for none
+        final int[] match;                  // the slots saved on the way to MATCH, null if it can't be reached
+        final int[] matchAtEnd;             // same for the end of the text
+
+        Node(Edge[] edges, int[] match, int[] matchAtEnd) {
+            this.edges = edges;
+            this.match = match;
+            this.matchAtEnd = matchAtEnd;
+
+            for (char c = 0; c < 128; c++) {
+                for (int i = 0; i < edges.length && i < Byte.MAX_VALUE - 1; i++) {
+                    if (edges[i].cls.match(c)) {
+                        ascii[c] = (byte) (i + 1);
+                        break;
+                    }
+                }
+            }
+        }
+
+        Edge edge(char c) {
+            if (c < 128 && edges.length < Byte.MAX_VALUE)
+                return (ascii[c] == 0) ? null : edges[ascii[c] - 1];
+
+            return slowEdge(c);
+        }
+
+        private Edge slowEdge(char c) {
+            for (Edge e : edges) {
+                if (e.cls.match(c))
+                    return e;
+            }
+
+            return null;
+        }
+    }
+
+    private static class Edge {
+        final CharacterClass cls;
+        final int target;
+        final int[] saves;
+
+        Edge(CharacterClass cls, int target, int[] saves) {
+            this.cls = cls;
+            this.target = target;
+            this.saves = saves;
+        }
+    }
+
+    // Walks the instructions that don't consume text from a pc in the PikeVM's priority order, collecting the CHAR
+    // instructions it reaches as edges (until it reaches MATCH) with the SAVEs on their path.  atEnd resolves $ (and
+    // only a MATCH can be reached at the end of the text).
+    private static class Closure {
+        private final Program prog;
+        private final int[] index;
+        private final boolean[] seen;
+
+        private boolean atStart;
+        private boolean atEnd;
+        private final List<Integer> saves = new ArrayList<>();
+
+        List<Edge> edges;
+        int[] match;
+
+        Closure(Program prog, int[] index) {
+            this.prog = prog;
+            this.index = index;
+            seen = new boolean[prog.size];
+        }
+
+        void run(int pc, boolean atStart, boolean atEnd) {
+            this.atStart = atStart;
+            this.atEnd = atEnd;
+            Arrays.fill(seen, false);
+            saves.clear();
+            edges = new ArrayList<>();
+            match = null;
+
+            visit(pc);
+        }
+
+        private void visit(int pc) {
+            if (match != null || seen[pc])
+                return;
+            seen[pc] = true;
+
+            switch (prog.op[pc]) {
+                case Program.CHAR:
+                    if (!atEnd)
+                        edges.add(new Edge(prog.cls[pc], index[pc], savesArray()));
+                    break;
+
+                case Program.MATCH:
+                    match = savesArray();
+                    break;
+
+                case Program.JMP:
+                    visit(prog.x[pc]);
+                    break;
+
+                case Program.SPLIT:
+                    visit(prog.x[pc]);
+                    visit(prog.y[pc]);
+                    break;
+
+                case Program.SAVE:
+                    saves.add(prog.n[pc]);
+                    visit(pc + 1);
+                    saves.remove(saves.size() - 1);
+                    break;
+
+                case Program.ASSERT:
+                    if (prog.n[pc] == '^' ? atStart : atEnd)
+                        visit(pc + 1);
+                    break;
+            }
+        }
+
+        private int[] savesArray() {
+            int[] ret = new int[saves.size()];
+            for (int i = 0; i < ret.length; i++) {
+                ret[i] = saves.get(i);
+            }
+            return ret;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package org.yucs.spotter.regex;
+
+import java.util.Arrays;
+
+// PikeVM simulates a Program in a single left to right pass over the text.
+// Instead of backtracking into one alternate at a time, it follows all of them in lock step as a list of threads.
+// Threads are kept in priority order (the order the backtracker would try them in), when a thread matches the lower
+// priority threads are dropped, which gives the same match and capture groups as the Token graph would.
+//
+// A program counter can only be in a thread list once, so a step costs at most the Program size and the whole
+// match is linear in the length of the text.
+//
+// The one exception is a quantifier whose tokens can match the empty string: whether its LOOP ends the quantifier
+// depends on the register holding where the iteration started, so the same program counter can lead to different
+// threads depending on which of those registers hold the current position.  The instructions followed while adding
+// threads are therefore keyed by program counter and that register mask (limited to MASK_BITS registers).
+
+class PikeVM {
+    private static final int MASK_BITS = 6;
+
+    private final Program prog;
+    private final int maskBits;
+
+    private Threads clist;
+    private Threads nlist;
+
+    // explicit stack for following the non consuming instructions, entries < 0 restore a slot (see add())
+    private int[] stack;
+    private int[] stackSlot;
+    private int[] stackValue;
+
+    PikeVM(Program prog) {
+        this.prog = prog;
+
+        int bits = Math.min(prog.registerCount, MASK_BITS);
+        while (bits > 0 && (prog.size << bits) > (1 << 20))
+            bits--;
+        maskBits = bits;
+
+        clist = new Threads(prog.size, prog.slotCount, maskBits);
+        nlist = new Threads(prog.size, prog.slotCount, maskBits);
+        stack = new int[prog.size + 1];
+        stackSlot = new int[prog.size + 1];
+        stackValue = new int[prog.size + 1];
+    }
+
+    /**
+     * Finds the first match in text (trying the start positions the way Matcher does)
+     *
+     * @param slots filled with the capture group positions of the match, may be null if only true/false matters
+     * @return if the text matched
+     */
+    boolean search(String text, int[] slots) throws RegexException {
+        return search(text, slots, 0, text.length(), false);
+    }
+
+    /**
+     * Finds the first match in text that is between start and end (the anchors still see the whole text)
+     *
+     * @param anchored if the match has to start at start
+     */
+    boolean search(String text, int[] slots, int start, int end, boolean anchored) throws RegexException {
+        int[] caps = new int[prog.slotCount];
+        boolean matched = false;
+
+        // no thread that starts after the last start position of the Prefilter can match
+        int last = anchored ? start : prog.prefilter.last(text);
+
+        clist.clear();
+
+        for (int pos = start; ; pos++) {
+            // without threads, the next one can only start where the Prefilter says
+            if (clist.size == 0 && !anchored && (pos = prog.prefilter.next(text, pos, last)) == -1)
+                break;
+
+            // a new thread starting at this position has the lowest priority, once a match is found no later start
+            // can be preferred to it.  Like Matcher, the position after the last character isn't a start position.
+            if (!matched && pos <= last && (anchored ? pos == start : (pos < end || pos == 0))) {
+                Arrays.fill(caps, -1);
+                add(clist, 0, pos, caps, text);
+            }
+
+            if (clist.size == 0) {
+                if (matched || anchored || pos + 1 >= end || pos >= last)
+                    break;
+                clist.clear();
+                continue;
+            }
+
+            nlist.clear();
+
+            for (int i = 0; i < clist.size; i++) {
+                int pc = clist.pc[i];
+
+                if (prog.op[pc] == Program.MATCH) {
+                    matched = true;
+                    if (slots == null)
+                        return true;
+
+                    System.arraycopy(clist.caps[i], 0, slots, 0, slots.length);
+                    break; // lower priority threads can't beat this match
+                }
+
+                if (pos < end && prog.cls[pc].match(text.charAt(pos))) {
+                    add(nlist, pc + 1, pos + 1, clist.caps[i], text);
+                }
+            }
+
+            Threads tmp = clist;
+            clist = nlist;
+            nlist = tmp;
+
+            if (pos >= end)
+                break;
+        }
+
+        return matched;
+    }
+
+    // Follows pc through the instructions that don't consume text, adding the CHAR and MATCH instructions it
+    // reaches to the thread list.  The depth first order keeps the threads in priority order.
+    private void add(Threads q, int pc, int pos, int[] caps, String text) throws RegexException {
+        int top = 0;
+        stack[top++] = pc;
+
+        while (top > 0) {
+            pc = stack[--top];
+
+            if (pc < 0) { // undo a SAVE before following the other branch of a SPLIT
+                caps[stackSlot[top]] = stackValue[top];
+                continue;
+            }
+
+            while (q.visit(key(pc, pos, caps))) {
+                switch (prog.op[pc]) {
+                    case Program.JMP:
+                        pc = prog.x[pc];
+                        continue;
+
+                    case Program.SPLIT:
+                        push(top++, prog.y[pc], 0, 0);
+                        pc = prog.x[pc];
+                        continue;
+
+                    case Program.LOOP:
+                        pc = (caps[prog.n[pc]] == pos) ? prog.y[pc] : prog.x[pc];
+                        continue;
+
+                    case Program.SAVE:
+                        push(top++, -1, prog.n[pc], caps[prog.n[pc]]);
+                        caps[prog.n[pc]] = pos;
+                        pc++;
+                        continue;
+
+                    case Program.ASSERT:
+                        if (AnchorToken.holds((char) prog.n[pc], text, pos)) {
+                            pc++;
+                            continue;
+                        }
+                        break;
+
+                    default: // CHAR and MATCH wait for the step
+                        q.add(pc, caps);
+                }
+
+                break;
+            }
+        }
+    }
+
+    private int key(int pc, int pos, int[] caps) {
+        int key = pc << maskBits;
+
+        if (maskBits != 0 && prog.op[pc] != Program.CHAR && prog.op[pc] != Program.MATCH) {
+            int register = 2 * prog.captureCount;
+            for (int i = 0; i < maskBits; i++) {
+                if (caps[register + i] == pos)
+                    key |= 1 << i;
+            }
+        }
+
+        return key;
+    }
+
+    private void push(int top, int pc, int slot, int value) {
+        if (top == stack.length) {
+            stack = Arrays.copyOf(stack, top * 2);
+            stackSlot = Arrays.copyOf(stackSlot, top * 2);
+            stackValue = Arrays.copyOf(stackValue, top * 2);
+        }
+
+        stack[top] = pc;
+        stackSlot[top] = slot;
+        stackValue[top] = value;
+    }
+
+    // The threads (CHAR and MATCH instructions with their capture slots) in priority order, and a sparse set
+    // (constant time clear and membership) of the instructions followed to reach them
+    private static class Threads {
+        final int[] pc;
+        final int[][] caps;
+        int size = 0;
+
+        final int[] sparse;
+        final int[] dense;
+        int visited = 0;
+
+        Threads(int progSize, int slotCount, int maskBits) {
+            pc = new int[progSize];
+            caps = new int[progSize][slotCount];
+            sparse = new int[progSize << maskBits];
+            dense = new int[progSize << maskBits];
+        }
+
+        boolean visit(int key) {
+            int i = sparse[key];
+            if (i < visited && dense[i] == key)
+                return false;
+
+            sparse[key] = visited;
+            dense[visited++] = key;
+            return true;
+        }
+
+        void add(int p, int[] c) {
+            pc[size] = p;
+            System.arraycopy(c, 0, caps[size++], 0, c.length);
+        }
+
+        void clear() {
+            size = 0;
+            visited = 0;
+        }
+    }
+}
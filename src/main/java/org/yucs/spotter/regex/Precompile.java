@@ -0,0 +1,26 @@
+package org.yucs.spotter.regex;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a String constant whose regex is compiled into a PrecompiledRegex class at build time, by the annotation
+ * processor of the regex-processor module.  The class is generated in the package of the constant's class.
+ *
+ * <pre>
+ * class Patterns {
+ *     &#64;Precompile static final String EMAIL = "(\\w+)@(\\w+)\\.com";
+ *     static final Regex EMAIL_REGEX = new Regex(new Patterns_EMAIL());
+ * }
+ * </pre>
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.FIELD)
+public @interface Precompile {
+    /**
+     * @return the simple name of the generated class, by default the class and constant names joined by _
+     */
+    String value() default "";
+}
@@ -0,0 +1,229 @@
+package org.yucs.spotter.regex;
+
+import java.util.Arrays;
+
+// The classes that BytecodeCompiler writes for a Program extend PrecompiledRegex, the ones that the regex-processor
+// module generates at build time for the constants annotated with @Precompile as well as the ones compiled at run
+// time for Regex.COMPILE_TO_BYTECODE.  A Regex created from a generated class (ex: new Regex(new Patterns_EMAIL()))
+// matches without tokenizing the regex at all.
+//
+// The search is the Backtracker's: the start positions, the stack of the alternates left to try and the memory of the
+// tried states are here, a generated class only has the code of the Program's instructions (thread()) and of its
+// Prefilter (last() and next()), with the Program's operands and characters as constants.
+//
+// A Program that the linear engines could have run is only matched by the generated class as long as the tried
+// states fit in the Regex's backtrack memo, longer texts tokenize the regex after all (once, see Regex.tokenized()).
+
+@SuppressWarnings("WeakerAccess")
+public abstract class PrecompiledRegex {
+    final String regex;
+    final int captureCount;
+    final int slotCount;
+    final int size;
+    final boolean backtracking;
+
+    private long[] visited = new long[0];
+    private int base; // the first position of the window that visited has the bits of
+    private int window; // the number of positions in it
+
+    // the alternates the last search went back to
+    long steps;
+
+    // the jobs left to try: (pc, position), or a slot to restore (pc == -1)
+    private int[] jobPc = new int[64];
+    private int[] jobPos = new int[64];
+    private int[] jobValue = new int[64];
+    private int jobs;
+
+    /**
+     * @param regex the regex the class was generated for
+     * @param captureCount the number of capture groups, including the whole match
+     * @param slotCount the capture slots and registers of the Program
+     * @param size the number of instructions of the Program
+     * @param backtracking if the Program could only be compiled for the Backtracker
+     */
+    protected PrecompiledRegex(String regex, int captureCount, int slotCount, int size, boolean backtracking) {
+        this.regex = regex;
+        this.captureCount = captureCount;
+        this.slotCount = slotCount;
+        this.size = size;
+        this.backtracking = backtracking;
+    }
+
+    /**
+     * @return an instance of the generated class of its own, for a Matcher, which keeps its backtracking stack between
+     * searches
+     */
+    protected abstract PrecompiledRegex newInstance();
+
+    /**
+     * Runs the Program's instructions from pc at pos, until they match or fail.  The alternates it passes are pushed
+     * with branch(), the slots it changes with set() or mark().
+     *
+     * @param caps the capture slots and registers
+     * @return if the Program matched
+     */
+    protected abstract boolean thread(String text, int pc, int pos, int[] caps);
+
+    /**
+     * @return the last position a match can start at, like Prefilter.last()
+     */
+    protected abstract int last(String text);
+
+    /**
+     * @return the first position from pos on a match can start at, -1 if there is none up to last, like
+     * Prefilter.next()
+     */
+    protected abstract int next(String text, int pos, int last);
+
+    /**
+     * Finds the first match in text, like Backtracker.search()
+     *
+     * @param slots filled with the capture group positions of the match
+     * @param maxMemo the memory in bytes the tried states may use
+     * @return if the text matched
+     */
+    final boolean search(String text, int[] slots, int maxMemo) {
+        int len = text.length();
+
+        // a window that doesn't hold the whole text slides by multiples of 64 positions, which are whole words
+        base = 0;
+        window = fits(text, maxMemo, size) ? len + 1 : (int) (8L * Math.max(maxMemo, 0) / size) & ~63;
+
+        int words = (int) (((long) window * size + 63) / 64);
+        if (visited.length < words)
+            visited = new long[words];
+        else
+            Arrays.fill(visited, 0, words, 0);
+
+        int last = last(text);
+        int[] caps = new int[slotCount];
+        steps = 0;
+
+        for (int start = next(text, 0, last); start != -1; start = next(text, start + 1, last)) {
+            Arrays.fill(caps, -1);
+
+            if (window <= len && start - base >= Math.max(window / 2, 64)) {
+                int shift = (start - base) & ~63;
+                int shiftWords = (shift < window) ? (int) ((long) shift / 64 * size) : words;
+                System.arraycopy(visited, shiftWords, visited, 0, words - shiftWords);
+                Arrays.fill(visited, words - shiftWords, words, 0);
+                base += shift;
+            }
+
+            if (run(text, start, caps)) {
+                System.arraycopy(caps, 0, slots, 0, slots.length);
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private boolean run(String text, int start, int[] caps) {
+        jobs = 0;
+        branch(0, start);
+
+        while (jobs > 0) {
+            jobs--;
+            int pc = jobPc[jobs];
+            int pos = jobPos[jobs];
+
+            if (pc < 0) {
+                caps[pos] = jobValue[jobs];
+                continue;
+            }
+
+            steps++;
+            if (thread(text, pc, pos, caps))
+                return true;
+        }
+
+        return false;
+    }
+
+    private void push(int pc, int pos, int value) {
+        if (jobs == jobPc.length) {
+            jobPc = Arrays.copyOf(jobPc, jobs * 2);
+            jobPos = Arrays.copyOf(jobPos, jobs * 2);
+            jobValue = Arrays.copyOf(jobValue, jobs * 2);
+        }
+
+        jobPc[jobs] = pc;
+        jobPos[jobs] = pos;
+        jobValue[jobs] = value;
+        jobs++;
+    }
+
+    /**
+     * Leaves the alternate at pc for when the current path fails
+     */
+    protected final void branch(int pc, int pos) {
+        push(pc, pos, 0);
+    }
+
+    /**
+     * Sets a slot, which is restored when the path fails
+     */
+    protected final void set(int[] caps, int slot, int value) {
+        push(-1, slot, caps[slot]);
+        caps[slot] = value;
+    }
+
+    /**
+     * Sets a register to the height of the stack, for cut()
+     */
+    protected final void mark(int[] caps, int slot) {
+        push(-1, slot, caps[slot]);
+        caps[slot] = jobs;
+    }
+
+    /**
+     * Drops the alternates pushed since the stack was height high, keeping the slot values to restore
+     */
+    protected final void cut(int height) {
+        int top = height;
+        for (int i = height; i < jobs; i++) {
+            if (jobPc[i] < 0) {
+                jobPc[top] = jobPc[i];
+                jobPos[top] = jobPos[i];
+                jobValue[top] = jobValue[i];
+                top++;
+            }
+        }
+
+        jobs = top;
+    }
+
+    /**
+     * @return if the state (pc, pos) was tried already, and remembers it if it wasn't
+     */
+    protected final boolean tried(int pc, int pos) {
+        if (pos < base || pos - base >= window)
+            return false;
+
+        long bit = (long) (pos - base) * size + pc;
+        if ((visited[(int) (bit >>> 6)] & (1L << bit)) != 0)
+            return true;
+
+        visited[(int) (bit >>> 6)] |= 1L << bit;
+        return false;
+    }
+
+    /**
+     * @return if there is a word break (\b) at pos, like AnchorToken
+     */
+    protected static boolean wordBreak(String text, int pos) {
+        return AnchorToken.wordBreak((pos == 0) ? -1 : text.charAt(pos - 1),
+                (pos == text.length()) ? -1 : text.charAt(pos));
+    }
+
+    // can the generated class match text without giving up the linear time of the other engines
+    boolean fits(String text, int maxMemo) {
+        return backtracking || fits(text, maxMemo, size);
+    }
+
+    private static boolean fits(String text, int maxMemo, int size) {
+        return (long) size * (text.length() + 1) <= 8L * maxMemo;
+    }
+}
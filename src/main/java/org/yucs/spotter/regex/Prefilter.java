@@ -0,0 +1,113 @@
+package org.yucs.spotter.regex;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Prefilter is what the Token graph tells about where its matches can be, worked out once when the regex is compiled.
+// The engines ask it for the positions a match can start at instead of trying every one of them:
+// - a match starts with the literal prefix (found with String.indexOf()), or else with one of the literals of an
+//   alternation (found with AhoCorasick), or else with one of the first characters
+// - a match contains the required literal, so it can't start after the literal last is in the text
+// - a match that goes through ^ starts at 0, one that goes through $ and has a bounded length starts close enough to
+//   the end of the text to reach it
+// - a match starts no closer to the end of the text than the shortest length a match can have
+// Texts without the required literal or any of the first characters, or shorter than that length, can't match at all.
+
+final class Prefilter {
+    final String prefix;
+    final AhoCorasick literals; // null when there is a prefix
+    final String required;
+    final CharSet first; // null when a match can start with any character (or be empty)
+    final boolean startAnchored;
+    final boolean endAnchored;
+    final int minLength;
+    final int maxLength; // -1 when unbounded
+
+    Prefilter(Token t) {
+        prefix = literalPrefix(t);
+        literals = prefix.isEmpty() ? t.literals() : null;
+        required = requiredLiteral(t);
+        first = firstChars(t);
+        startAnchored = t.anchors('^');
+        endAnchored = t.anchors('$');
+        minLength = t.minLength();
+        maxLength = t.maxLength();
+    }
+
+    /**
+     * @return if text can contain a match at all
+     */
+    boolean possible(String text) {
+        return text.length() >= minLength && (required.isEmpty() || text.contains(required)) &&
+                (first == null || first.next(text, 0) < text.length());
+    }
+
+    /**
+     * Like Matcher, the position after the last character is only a start position for the empty text.
+     *
+     * @return the last position a match in text can start at, -1 if there is none
+     */
+    int last(String text) {
+        int last = startAnchored ? 0 : Math.max(text.length() - 1, 0);
+        last = Math.min(last, text.length() - minLength);
+
+        if (!required.isEmpty())
+            last = Math.min(last, text.lastIndexOf(required));
+
+        return last;
+    }
+
+    /**
+     * @param last the last start position, from last(text)
+     * @return the first position from pos on a match in text can start at, -1 if there is none
+     */
+    int next(String text, int pos, int last) {
+        if (endAnchored && maxLength != -1)
+            pos = Math.max(pos, text.length() - maxLength);
+
+        if (!prefix.isEmpty()) {
+            pos = text.indexOf(prefix, pos);
+        } else if (literals != null) {
+            pos = literals.next(text, pos);
+        } else if (first != null) {
+            pos = first.next(text, pos);
+            if (pos == text.length())
+                return -1;
+        }
+
+        return (pos <= last) ? pos : -1;
+    }
+
+    // The literal text that every match of the tokens starting at t begins with, "" when there is none
+    static String literalPrefix(Token t) {
+        StringBuilder sb = new StringBuilder();
+        t.prefix(sb);
+        return sb.toString();
+    }
+
+    // The longest literal text that every match of the tokens starting at t contains, "" when there is none
+    static String requiredLiteral(Token t) {
+        StringBuilder run = new StringBuilder();
+        List<String> runs = new ArrayList<>();
+        t.required(run, runs);
+        Token.endRun(run, runs);
+
+        String ret = "";
+        for (String literal : runs) {
+            if (literal.length() > ret.length())
+                ret = literal;
+        }
+
+        return ret;
+    }
+
+    // The characters that a match of the tokens starting at t can start with, null when that can be any character or
+    // when a match can be empty
+    static CharSet firstChars(Token t) {
+        CharSet set = new CharSet();
+        if (t.first(set) || set.isFull())
+            return null;
+
+        return set;
+    }
+}
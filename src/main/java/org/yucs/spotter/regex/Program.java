@@ -0,0 +1,64 @@
+package org.yucs.spotter.regex;
+
+// A Program is the Token graph lowered into a flat array of NFA instructions (a Thompson construction).
+// The Token graph can only be walked by backtracking, a Program can also be simulated by the automaton engines
+// (ex: PikeVM) that follow every alternate at the same time.
+//
+// Slots 2*n and 2*n+1 hold the start and end of capture group n, slots after the capture slots are registers
+// used by LOOP to remember where the current iteration of a quantifier started.  Registers are only used by
+// quantifiers whose tokens can match the empty string, as only those can have an empty iteration, by MARK, by
+// the look arounds that REWIND and by the quantifiers that COUNT their iterations.
+//
+// MARK, CUT, BACKREF, the look around instructions (RCHAR, REWIND, FAIL) and COUNT, REPEAT and MANDATORY are only
+// in Programs compiled for the Backtracker.
+
+final class Program {
+    static final int CHAR = 0;   // consume one character that is in cls[pc], continue at pc+1
+    static final int MATCH = 1;  // the regex matched
+    static final int JMP = 2;    // continue at x[pc]
+    static final int SPLIT = 3;  // continue at x[pc], if that fails continue at y[pc]
+    static final int SAVE = 4;   // record the text position in slot n[pc], continue at pc+1
+    static final int LOOP = 5;   // end of a quantifier iteration, continue at x[pc] or at y[pc] if the iteration
+                                 // (that started at the position stored in slot n[pc]) was empty
+    static final int ASSERT = 6; // the anchor (char)n[pc] has to hold at the text position, continue at pc+1
+    static final int BACKREF = 7; // consume the text captured by group n[pc], continue at pc+1
+    static final int MARK = 8;    // remember the Backtracker's stack height in register n[pc], continue at pc+1
+    static final int CUT = 9;     // drop the alternates left since the MARK for register n[pc], continue at pc+1
+    static final int RCHAR = 10;  // consume the character before the text position (look behinds are matched
+                                  // backwards), it has to be in cls[pc], continue at pc+1
+    static final int REWIND = 11; // go back to the text position stored in register n[pc], continue at pc+1
+    static final int FAIL = 12;   // this alternate doesn't match
+    static final int COUNT = 13;  // start counting iterations in register n[pc] from 0, continue at pc+1
+    static final int REPEAT = 14; // continue at y[pc] if register n[pc] counted x[pc] iterations, otherwise count one
+                                  // more and continue at pc+1 (x[pc] == -1 counts without a limit)
+    static final int MANDATORY = 15; // continue at y[pc] if register n[pc] counted at most x[pc] iterations,
+                                     // otherwise continue at pc+1
+
+    final int[] op;
+    final int[] x;
+    final int[] y;
+    final int[] n;
+    final CharacterClass[] cls;
+    final int size;
+
+    final int captureCount;
+    final int registerCount;
+    final int slotCount;
+
+    // where the matches can start, the engines only try those positions
+    final Prefilter prefilter;
+
+    Program(int[] op, int[] x, int[] y, int[] n, CharacterClass[] cls, int size, int captureCount, int registerCount,
+            Prefilter prefilter) {
+        this.op = op;
+        this.x = x;
+        this.y = y;
+        this.n = n;
+        this.cls = cls;
+        this.size = size;
+        this.captureCount = captureCount;
+        this.registerCount = registerCount;
+        this.slotCount = 2 * captureCount + registerCount;
+        this.prefilter = prefilter;
+    }
+}
@@ -99,14 +99,14 @@ class QuantifierFactory {
         return null;
     }
 
-    static Token genToken(QuantifierFactory qf, Token t) throws RegexException {
+    static Token genToken(QuantifierFactory qf, Token t, int id) throws RegexException {
         switch (qf.q.matchType) {
             case GREEDY:
-                return new QuantifierGreedyToken(qf.q, t);
+                return new QuantifierGreedyToken(qf.q, t, id);
             case NONGREEDY:
-                return new QuantifierNonGreedyToken(qf.q, t);
+                return new QuantifierNonGreedyToken(qf.q, t, id);
             case POSSESSIVE:
-                return new QuantifierPossessiveToken(qf.q, t);
+                return new QuantifierPossessiveToken(qf.q, t, id);
             default:
                 throw new RegexException("Unknown Quantifier Type: " + qf.q.matchType);
         }
@@ -1,37 +1,25 @@
 package org.yucs.spotter.regex;
 
-import java.util.HashSet;
 import java.util.Set;
-import java.util.Stack;
 
 class QuantifierGreedyToken extends QuantifierToken {
-    private Set<Integer> seen;
-
-    QuantifierGreedyToken(Quantifier q, Token t) {
-        this(q.min, q.max, t, false, null);
-    }
-
-    private QuantifierGreedyToken(int min, int max, Token t, boolean clone, Set<Integer> seen) {
-        super(min, max, t, clone);
-        this.seen = seen;
+    QuantifierGreedyToken(Quantifier q, Token t, int id) {
+        super(q.min, q.max, t, id);
     }
 
     @Override
     boolean maxQuantifierStrategy(Matcher m) throws RegexException {
-        if (!clone || seen == null)
-            seen = new HashSet<>();
+        Set<Integer> seen = iterationStarts(m);
 
         int startPos = m.getTextPosition();
 
-        if (clone) {
-            if (seen.contains(startPos)) {
-                return next.match(m);
-            }
+        if (seen.contains(startPos)) {
+            return next.match(m);
         }
 
         seen.add(startPos);
 
-        Stack<Token> savedState = m.saveThenPushNextStack(cloneDecrement());
+        Continuation savedState = m.saveThenPushNextStack(iterationEnd);
 
         // try to match quantified token greedily, if greedily fails, go to next;
         boolean ret = t.match(m);
@@ -45,10 +33,7 @@ class QuantifierGreedyToken extends QuantifierToken {
     }
 
     @Override
-    QuantifierToken cloneDecrement() {
-        QuantifierToken qt = new QuantifierGreedyToken(decrementMin(), decrementMax(), t, true, seen);
-        qt.next = this.next;
-
-        return qt;
+    void compile(Compiler c) throws RegexException {
+        c.repeat(t, min, max, true);
     }
 }
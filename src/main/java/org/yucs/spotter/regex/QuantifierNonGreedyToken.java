@@ -1,44 +1,33 @@
 package org.yucs.spotter.regex;
 
-import java.util.HashSet;
 import java.util.Set;
-import java.util.Stack;
 
 class QuantifierNonGreedyToken extends QuantifierToken {
-    private Set<Integer> seen;
-
-    QuantifierNonGreedyToken(Quantifier q, Token t) {
-        this(q.min, q.max, t, false, null);
-    }
-
-    private QuantifierNonGreedyToken(int min, int max, Token t, boolean clone, Set<Integer> seen) {
-        super(min, max, t, clone);
-        this.seen = seen;
+    QuantifierNonGreedyToken(Quantifier q, Token t, int id) {
+        super(q.min, q.max, t, id);
     }
 
     @Override
     boolean maxQuantifierStrategy(Matcher m) throws RegexException {
-        if (!clone || seen == null)
-            seen = new HashSet<>();
+        // matching next can enter this token again, keep the set for this entry
+        Set<Integer> entrySeen = iterationStarts(m);
 
         int startPos = m.getTextPosition();
 
-        Stack<Token> savedState = m.saveNextStack();
+        Continuation savedState = m.saveNextStack();
 
         // try to match next, as not greedy, if that fails, try to match quantified token once before trying again
         boolean ret = next.match(m);
         if (!ret) {
-            if (clone) {
-                if (seen.contains(startPos)) {
-                    return false;
-                }
+            if (entrySeen.contains(startPos)) {
+                return false;
             }
 
-            seen.add(startPos);
+            entrySeen.add(startPos);
             m.setTextPosition(startPos);
             m.restoreNextStack(savedState);
 
-            m.pushNextStack(cloneDecrement());
+            m.pushNextStack(iterationEnd);
 
             return t.match(m);
         }
@@ -47,10 +36,7 @@ class QuantifierNonGreedyToken extends QuantifierToken {
     }
 
     @Override
-    QuantifierToken cloneDecrement() {
-        QuantifierToken qt = new QuantifierNonGreedyToken(decrementMin(), decrementMax(), t, true, seen);
-        qt.next = this.next;
-
-        return qt;
+    void compile(Compiler c) throws RegexException {
+        c.repeat(t, min, max, false);
     }
 }
@@ -1,20 +1,14 @@
 package org.yucs.spotter.regex;
 
-import java.util.Stack;
-
 class QuantifierPossessiveToken extends QuantifierToken {
-    QuantifierPossessiveToken(Quantifier q, Token t) {
-        this(q.min, q.max, t, false);
-    }
-
-    private QuantifierPossessiveToken(int min, int max, Token t, boolean clone) {
-        super(min, max, t, clone);
+    QuantifierPossessiveToken(Quantifier q, Token t, int id) {
+        super(q.min, q.max, t, id);
     }
 
     @Override
     boolean maxQuantifierStrategy(Matcher m) throws RegexException {
-        for(int i=0; i < max || max == -1; i++) {
-            Stack<Token> savedState = m.saveAndResetNextStack();
+        for(int i=m.getIterations(id); i < max || max == -1; i++) {
+            Continuation savedState = m.saveAndResetNextStack();
             int startPos = m.getTextPosition();
             if (!t.match(m)) {
                 m.restoreNextStack(savedState);
@@ -27,10 +21,7 @@ class QuantifierPossessiveToken extends QuantifierToken {
     }
 
     @Override
-    QuantifierToken cloneDecrement() {
-        QuantifierToken qt = new QuantifierPossessiveToken(decrementMin(), decrementMax(), t, true);
-        qt.next = this.next;
-
-        return qt;
+    void compile(Compiler c) throws RegexException {
+        c.possessive(t, min, max);
     }
 }
\ No newline at end of file
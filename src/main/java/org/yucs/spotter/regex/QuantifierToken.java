@@ -1,33 +1,69 @@
 package org.yucs.spotter.regex;
 
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// The number of iterations a QuantifierToken matched is kept in the Matcher (see Matcher.getIterations()), so that
+// {1000} is a single token however many iterations it counts.
+// Each entry into the quantifier counts from 0, and every count is put back by the call that changed it once it
+// returns: the counts follow the backtracking, and an entry nested in another (ex: the quantified token is matched
+// again after the quantifier) gets the other's count back when it's done.
+
 abstract class QuantifierToken extends Token {
-    private final int min;
+    final int min;
     final int max;
     final protected Token t;
-    final boolean clone;
+    final int id; // the index of the quantifier's count in the Matcher
+
+    final Token iterationEnd = new IterationEndToken(this);
 
-    protected QuantifierToken(int min, int max, Token t, boolean clone) {
+    protected QuantifierToken(int min, int max, Token t, int id) {
         this.min = min;
         this.max = max;
         this.t = t;
-        this.clone = clone;
+        this.id = id;
     }
 
+    // matches the iterations after the min ones
     abstract boolean maxQuantifierStrategy(Matcher m) throws RegexException;
 
-    abstract QuantifierToken cloneDecrement();
-
     @Override
     boolean match(Matcher m) throws RegexException {
-        // if haven't matched the minimum # of times yet, stick a decremented QuantifierToken on next stack and
-        // try to match the token we are quantifying
-        if (min != 0) {
-            m.pushNextStack(cloneDecrement());
+        int count = m.getIterations(id);
+        Set<Integer> starts = m.getIterationStarts(id);
+
+        m.setIterations(id, 0);
+        boolean ret = iterate(m);
+
+        m.setIterations(id, count);
+        m.setIterationStarts(id, starts);
+        return ret;
+    }
+
+    // an iteration matched (see IterationEndToken)
+    boolean iterated(Matcher m) throws RegexException {
+        int count = m.getIterations(id);
+
+        m.setIterations(id, count + 1);
+        boolean ret = iterate(m);
+
+        m.setIterations(id, count);
+        return ret;
+    }
+
+    private boolean iterate(Matcher m) throws RegexException {
+        int count = m.getIterations(id);
+
+        // if haven't matched the minimum # of times yet, stick the iteration's end on next stack and try to match
+        // the token we are quantifying
+        if (count < min) {
+            m.pushNextStack(iterationEnd);
             return t.match(m);
         }
 
         // We've matched the minimum needed (0 for *, 1 for + or if specified in {,} so now unto max
-        if (max != 0) {
+        if (max == -1 || count < max) {
             return maxQuantifierStrategy(m);
         }
 
@@ -35,11 +71,61 @@ abstract class QuantifierToken extends Token {
         return next.match(m);
     }
 
-    int decrementMin() {
-        return (this.min > 0) ? this.min-1 : this.min;
+    // The positions the optional iterations of the current entry started at.  An iteration that would start where
+    // one already did doesn't match anything new, the first optional iteration starts a new set.
+    Set<Integer> iterationStarts(Matcher m) {
+        if (m.getIterations(id) > min)
+            return m.getIterationStarts(id);
+
+        Set<Integer> starts = new HashSet<>();
+        m.setIterationStarts(id, starts);
+        return starts;
+    }
+
+    @Override
+    boolean first(CharSet set) {
+        boolean empty = t.first(set);
+        return (min == 0 || empty) && next.first(set);
     }
 
-    int decrementMax() {
-        return (this.max > 0) ? this.max-1 : this.max;
+    @Override
+    boolean anchors(char anchor) {
+        return (min > 0 && t.anchors(anchor)) || next.anchors(anchor);
+    }
+
+    @Override
+    int minLength() {
+        return addMinLengths((long) t.minLength() * min, next.minLength());
+    }
+
+    @Override
+    int maxLength() {
+        int length = t.maxLength();
+        if (length == 0)
+            return next.maxLength();
+        if (length == -1 || max == -1 || (long) length * max > Integer.MAX_VALUE)
+            return -1;
+
+        return addLengths(length * max, next.maxLength());
+    }
+
+    // the first of the min iterations continues the run, whatever follows it is either another iteration or the next
+    // token
+    @Override
+    void required(StringBuilder run, List<String> runs) {
+        if (min > 0)
+            t.required(run, runs);
+        if (min != 1 || max != 1)
+            endRun(run, runs);
+
+        next.required(run, runs);
+    }
+
+    // the quantified token doesn't have a next token, so reversing it doesn't change which token it is
+    @Override
+    Token reverse() throws RegexException {
+        t.reverse();
+
+        return super.reverse();
     }
 }
@@ -7,6 +7,11 @@ class RecursiveToken extends Token {
         captureGroup = capture;
     }
 
+    @Override
+    int captureGroup() {
+        return captureGroup;
+    }
+
     @Override
     boolean match(Matcher m) throws RegexException {
         NormalExpressionToken t = m.getCaptureToken(captureGroup);
@@ -1,13 +1,91 @@
 package org.yucs.spotter.regex;
 
 import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 // Inspired by Rob Pike's implementation in TPOP:
 // http://www.cs.princeton.edu/courses/archive/spr09/cos333/beautiful.html
 
 @SuppressWarnings("WeakerAccess")
 public class Regex {
-    final private Tokenizer tokenizer;
+    /**
+     * Compiles the regex into a class of its own (see BytecodeCompiler), which replaces the Backtracker: the regexes
+     * with back references, look arounds, conditionals, atomic groups or possessive quantifiers then backtrack in
+     * code specialized to them.  The class is written directly, no java compiler is needed.  The flag has no effect
+     * (see isCompiledToBytecode(), it's also logged) for:
+     * <ul>
+     *   <li>the other regexes, which the automata and the PikeVM match faster than a backtracking class could</li>
+     *   <li>regexes whose compiled code would be longer than BytecodeCompiler.MAX_CODE_SIZE (8000) bytes, the JIT
+     *   doesn't compile methods that large</li>
+     *   <li>recursive regexes, which only the Tokens match</li>
+     * </ul>
+     * In all cases the regex still matches, only the engine changes.
+     */
+    public static final int COMPILE_TO_BYTECODE = 1;
+
+    /**
+     * The backtracking steps per character of the text after which a match is slow (see setBacktrackStepsPerChar())
+     */
+    public static final int DEFAULT_BACKTRACK_STEPS_PER_CHAR = 32;
+
+    private static final Logger LOG = Logger.getLogger(Regex.class.getName());
+
+    // the flags of the Regexes created without any, COMPILE_TO_BYTECODE when the org.yucs.spotter.regex.bytecode
+    // system property is true (ex: to run the tests against the compiled classes, see the bytecode maven profile)
+    private static final int DEFAULT_FLAGS =
+            Boolean.getBoolean("org.yucs.spotter.regex.bytecode") ? COMPILE_TO_BYTECODE : 0;
+
+    private final String regex;
+    final Tokenizer tokenizer;
+
+    // Regexes without back references, look arounds, recursion, conditionals, atomic groups or possessive quantifiers
+    // compile into a Program and are matched in linear time by the PikeVM instead of by backtracking
+    final Program program;
+
+    // match(String) only needs true/false, which the LazyDFA answers without following the Program's threads.  It
+    // also finds where a match ends, and the reverse one (run backwards from there) where it starts, so that Matcher
+    // only has to run the PikeVM over the match itself.  The DFAs create their states as they match, each thread has
+    // its own (see dfa() and reverseDFA()).
+    private final ThreadLocal<LazyDFA> dfas = new ThreadLocal<>();
+    private final ThreadLocal<LazyDFA> reverseDFAs = new ThreadLocal<>();
+
+    // short Programs (at most 64 CHAR instructions) are matched by match(String) without any state cache
+    final private ShiftAnd shiftAnd;
+
+    // anchored Programs where the next character always decides how to continue fill in the capture groups in a
+    // single pass, without the DFAs or the PikeVM
+    final OnePass onePass;
+
+    // the other regexes that compile (back references, look arounds, conditionals, atomic groups and possessive
+    // quantifiers) are run by the Backtracker instead of the Token graph, on a heap stack instead of java stack
+    // frames.  It remembers the (instruction, text position) pairs it tried while they fit in backtrackMemo bytes.
+    final Program backtrackProgram;
+    int backtrackMemo = Backtracker.DEFAULT_MAX_MEMO;
+
+    // The matches that backtrack count the alternates they go back to.  Once a match goes back to more than
+    // backtrackStepsPerChar per character of its text, the regex is slow on some texts: a Program that the linear
+    // engines can run isn't backtracked anymore (linearOnly), the others can only be logged.
+    private int backtrackStepsPerChar = DEFAULT_BACKTRACK_STEPS_PER_CHAR;
+    private volatile int slowMatches; // only written in slowMatch()
+    volatile boolean linearOnly;
+
+    // the class compiled from the Program for the Backtracker with COMPILE_TO_BYTECODE, which replaces the Backtracker
+    final PrecompiledRegex bytecode;
+
+    // the class generated at build time for a @Precompile constant, for the Regexes created from one (which have
+    // none of the above), and the Regex that tokenizes its regex after all for the texts it can't match linearly
+    final PrecompiledRegex precompiled;
+    private volatile Regex tokenized;
+    private volatile int dfaCacheSize = LazyDFA.DEFAULT_CACHE_SIZE;
+
+    // the Matcher that match(String) falls back to, kept so its engines' memory is reused by the following matches.
+    // A Matcher can only run one match at a time, each thread has its own.
+    private final ThreadLocal<Matcher> matchers = new ThreadLocal<>();
+
+    // the reversed regex for reverseDFA(), null when the Program has registers: the DFAs can't follow how a LOOP
+    // decides to end a quantifier, which could make them find different match ends than the PikeVM
+    final private Program reverseProgram;
 
     public static void main(String[] args) {
         Scanner sc = new Scanner(System.in);
@@ -36,16 +114,208 @@ public class Regex {
     }
 
     public Regex(String r) throws RegexException {
+        this(r, DEFAULT_FLAGS);
+    }
+
+    /**
+     * @param flags COMPILE_TO_BYTECODE or 0
+     */
+    public Regex(String r, int flags) throws RegexException {
+        regex = r;
         tokenizer = new Tokenizer(r);
         tokenizer.tokenize();
+        program = Compiler.compile(tokenizer);
+        reverseProgram = (program != null && program.registerCount == 0) ? Compiler.compileReverse(r) : null;
+        shiftAnd = (program != null) ? ShiftAnd.build(program) : null;
+        onePass = (program != null) ? OnePass.build(program) : null;
+        backtrackProgram = (program == null) ? Compiler.compile(tokenizer, true) : null;
+
+        bytecode = ((flags & COMPILE_TO_BYTECODE) != 0) ? compile() : null;
+        precompiled = null;
+    }
+
+    // the class of the Program for the Backtracker, null (and logged) when there is none.  Only a Program that should
+    // have compiled is worth a warning, the flag can be set for every Regex (see DEFAULT_FLAGS).
+    private PrecompiledRegex compile() {
+        if (program != null || backtrackProgram == null) {
+            LOG.fine("Regex " + regex + " isn't compiled to bytecode, " +
+                    ((program != null) ? "the linear engines match it" : "it is recursive"));
+            return null;
+        }
+
+        try {
+            return BytecodeCompiler.compile(backtrackProgram, regex, true);
+        } catch (RegexException e) {
+            LOG.warning("Regex " + regex + " isn't compiled to bytecode: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return if the regex matches with a class of its own (see COMPILE_TO_BYTECODE), which a precompiled regex
+     * always does
+     */
+    public boolean isCompiledToBytecode() {
+        return bytecode != null || precompiled != null;
+    }
+
+    /**
+     * A Regex for the class that the regex-processor module generated for a @Precompile constant, which matches
+     * without tokenizing the regex.
+     *
+     * @param precompiled an instance of the generated class
+     */
+    public Regex(PrecompiledRegex precompiled) {
+        this.precompiled = precompiled;
+        regex = precompiled.regex;
+        tokenizer = null;
+        program = null;
+        reverseProgram = null;
+        shiftAnd = null;
+        onePass = null;
+        backtrackProgram = null;
+        bytecode = null;
+    }
+
+    // the Regex of a precompiled regex, tokenized when the first text needs it
+    synchronized Regex tokenized() throws RegexException {
+        if (tokenized == null) {
+            tokenized = new Regex(precompiled.regex, 0);
+            tokenized.setDFACacheSize(dfaCacheSize);
+            tokenized.setBacktrackMemoSize(backtrackMemo);
+            tokenized.setBacktrackStepsPerChar(backtrackStepsPerChar);
+        }
+
+        return tokenized;
     }
 
+    /**
+     * Tells if the text matches, without the groups.  Threads can match with the same Regex at the same time, each
+     * one has its own DFAs and Matcher.
+     *
+     * @param text the text to match against the regex
+     * @return true/false if the text matches against the regex
+     */
     public boolean match(String text) throws RegexException {
-        return (new Matcher(tokenizer).match(text));
+        // String.indexOf() rules out the texts without the required literal faster than the automata can
+        if (program != null && !program.prefilter.possible(text))
+            return false;
+
+        if (shiftAnd != null)
+            return shiftAnd.match(text);
+
+        if (program != null) {
+            int ret = dfa().match(text);
+            if (ret != LazyDFA.GAVE_UP)
+                return ret == LazyDFA.MATCH;
+        }
+
+        Matcher matcher = matchers.get();
+        if (matcher == null) {
+            matcher = new Matcher(this, false);
+            matchers.set(matcher);
+        }
+
+        return matcher.match(text);
+    }
+
+    /**
+     * Limits the memory used by the states of the DFAs that match(String) and the Matchers use, per thread.  When the
+     * states don't fit, they are thrown away and created again, and if that keeps happening the match falls back to
+     * the other engines.
+     *
+     * @param bytes approximate memory the DFA states of a thread may use
+     */
+    public void setDFACacheSize(int bytes) {
+        dfaCacheSize = bytes;
+        if (tokenized != null)
+            tokenized.setDFACacheSize(bytes);
+    }
+
+    // the current thread's DFA for the Program, made again once setDFACacheSize() changed the size
+    LazyDFA dfa() {
+        LazyDFA ret = dfas.get();
+        if (ret == null || ret.cacheSize != dfaCacheSize) {
+            ret = new LazyDFA(program, dfaCacheSize);
+            dfas.set(ret);
+        }
+
+        return ret;
+    }
+
+    // the current thread's DFA for the reversed Program, null if there is none
+    LazyDFA reverseDFA() {
+        if (reverseProgram == null)
+            return null;
+
+        LazyDFA ret = reverseDFAs.get();
+        if (ret == null || ret.cacheSize != dfaCacheSize) {
+            ret = new LazyDFA(reverseProgram, dfaCacheSize, true, true, true);
+            reverseDFAs.set(ret);
+        }
+
+        return ret;
+    }
+
+    /**
+     * Limits the memory the Backtracker (used for regexes with back references, look arounds, atomic groups or
+     * possessive quantifiers) may use to remember the states it tried, which keeps its time linear in the length of
+     * the text.  Longer texts only remember the states of the positions close to where the match is tried from, and
+     * without any memory the match can take exponential time.
+     *
+     * @param bytes memory for the tried states of a single match
+     */
+    public void setBacktrackMemoSize(int bytes) {
+        backtrackMemo = bytes;
+        if (tokenized != null)
+            tokenized.setBacktrackMemoSize(bytes);
+    }
+
+    /**
+     * Sets how many alternates a backtracking match may go back to per character of the text.  A match that goes
+     * beyond is counted (see getSlowMatchCount()) and logged, and when the regex can also be matched in linear time
+     * (it has no back references, look arounds, conditionals, atomic groups or possessive quantifiers), the following
+     * matches are.
+     *
+     * @param steps the backtracking steps per character, DEFAULT_BACKTRACK_STEPS_PER_CHAR by default
+     */
+    public void setBacktrackStepsPerChar(int steps) {
+        backtrackStepsPerChar = steps;
+        if (tokenized != null)
+            tokenized.setBacktrackStepsPerChar(steps);
+    }
+
+    /**
+     * @return the number of matches that went back to more alternates than setBacktrackStepsPerChar() allows
+     */
+    public int getSlowMatchCount() {
+        return slowMatches + ((tokenized != null) ? tokenized.getSlowMatchCount() : 0);
+    }
+
+    // called by the Matchers after a backtracking match of a text of length characters
+    void backtracked(long steps, int length) {
+        if (steps <= (long) backtrackStepsPerChar * (length + 1))
+            return;
+
+        slowMatch(steps, length);
+    }
+
+    // the Matchers of several threads can run into slow matches at the same time, only one of them switches
+    private synchronized void slowMatch(long steps, int length) {
+        slowMatches++;
+        boolean switched = !linearOnly && (program != null || (precompiled != null && !precompiled.backtracking));
+        linearOnly |= switched;
+
+        // the first slow match is worth a warning, the following ones would flood the log
+        Level level = (slowMatches == 1 || switched) ? Level.WARNING : Level.FINE;
+        if (LOG.isLoggable(level)) {
+            LOG.log(level, "Regex " + regex + " went back to " + steps + " alternates on a text of " + length +
+                    " characters" + (switched ? ", matching it in linear time from now on" : ""));
+        }
     }
 
     @SuppressWarnings("WeakerAccess")
     public Matcher Matcher() throws RegexException {
-        return new Matcher(tokenizer);
+        return new Matcher(this);
     }
 }
\ No newline at end of file
@@ -0,0 +1,56 @@
+package org.yucs.spotter.regex;
+
+import java.lang.reflect.Constructor;
+
+// Scan finds the next character of a CharSet in a text, which is how the engines skip the positions no match can
+// start at.  CharSet looks the characters up in its CharacterClass one at a time.  The multi-release jar adds
+// VectorScan for Java 17 and later (see src/main/java17), which compares 16 to 32 characters at a time with the set's
+// ranges using the Vector API.  It's only there when the incubating module is added (java --add-modules
+// jdk.incubator.vector), otherwise (and before Java 17) of() returns null and the CharacterClass is used.
+
+abstract class Scan {
+    // every character is compared with each range, beyond that the bitmap is faster
+    static final int MAX_RANGES = 8;
+
+    // shorter texts aren't worth copying into the vectors
+    static final int MIN_LENGTH = 64;
+
+    // the chars looked up one at a time before a Scan, as when the set's chars are dense in the text the next one is
+    // usually among them
+    static final int MIN_SKIP = 16;
+
+    private static final Constructor<?> vector = vector();
+
+    /**
+     * @return the first position from pos on with a character of the set, text.length() if there isn't one
+     */
+    abstract int next(String text, int pos);
+
+    static boolean available() {
+        return vector != null;
+    }
+
+    /**
+     * @param ranges the ranges of the set, a pair of first and last character per range (see CharSet.ranges())
+     * @return the VectorScan for the set, null without one or when the set has too many ranges
+     */
+    static Scan of(char[] ranges) {
+        if (vector == null || ranges.length == 0 || ranges.length > 2 * MAX_RANGES)
+            return null;
+
+        try {
+            return (Scan) vector.newInstance((Object) ranges);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static Constructor<?> vector() {
+        try {
+            Class.forName("jdk.incubator.vector.ShortVector");
+            return Class.forName("org.yucs.spotter.regex.VectorScan").getDeclaredConstructor(char[].class);
+        } catch (ClassNotFoundException | NoSuchMethodException | LinkageError e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package org.yucs.spotter.regex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// ShiftAnd answers if a short Program matches a text with a bit parallel simulation of its Glushkov automaton.
+// The automaton's positions are the Program's CHAR instructions, bit i of a long is the i'th CHAR.  The set of
+// positions that just consumed a character is kept in a single long and the whole set advances with
+//
+//     D = (follow(D) | start) & mask[c]
+//
+// where follow(D) is the union of the positions that can come right after the ones in D (read from per byte tables,
+// so a few lookups no matter how many positions are set), start the positions that can come first in a match and
+// mask[c] the positions whose character class contains c.  Nothing is allocated while matching.
+//
+// Only Programs with at most 64 CHAR instructions and no word break anchors are handled (see build()).  ^ can only hold
+// before the first character and $ after the last one, so they are resolved when computing the start and final sets.
+
+class ShiftAnd {
+    static final int MAX_POSITIONS = 64;
+
+    private final CharacterClass[] classes;
+
+    private final long[] asciiMasks = new long[128];
+    private final long[][] follow;
+
+    private final long startAtZero;  // positions that can be first in a match starting at position 0
+    private final long start;        // positions that can be first in a match starting anywhere else
+    private final long finals;       // positions after which the Program can reach MATCH
+    private final long finalsAtEnd;  // positions after which the Program can reach MATCH if the text ends there
+    private final boolean empty;     // the Program matches the empty string at position 0
+    private final boolean emptyAtEnd;
+
+    private ShiftAnd(Program prog, List<Integer> positions) {
+        int[] index = new int[prog.size];
+        classes = new CharacterClass[positions.size()];
+        for (int i = 0; i < positions.size(); i++) {
+            index[positions.get(i)] = i;
+            classes[i] = prog.cls[positions.get(i)];
+        }
+
+        for (char c = 0; c < 128; c++) {
+            asciiMasks[c] = slowMask(c);
+        }
+
+        Closure closure = new Closure(prog, index);
+
+        long[] followSets = new long[positions.size()];
+        long f = 0;
+        long fe = 0;
+        for (int i = 0; i < positions.size(); i++) {
+            closure.run(positions.get(i) + 1, false);
+            followSets[i] = closure.chars;
+            if (closure.match)
+                f |= 1L << i;
+            if (closure.matchAtEnd)
+                fe |= 1L << i;
+        }
+        finals = f;
+        finalsAtEnd = fe;
+
+        closure.run(0, true);
+        startAtZero = closure.chars;
+        empty = closure.match;
+        emptyAtEnd = closure.matchAtEnd;
+
+        closure.run(0, false);
+        start = closure.chars;
+
+        // follow[k][b] is the union of the follow sets of the positions 8k+j for every bit j set in b
+        follow = new long[(positions.size() + 7) / 8][256];
+        for (int k = 0; k < follow.length; k++) {
+            for (int b = 1; b < 256; b++) {
+                int low = Integer.numberOfTrailingZeros(b);
+                long set = (8 * k + low < followSets.length) ? followSets[8 * k + low] : 0;
+                follow[k][b] = follow[k][b & (b - 1)] | set;
+            }
+        }
+    }
+
+    /**
+     * @return the ShiftAnd for the Program or null if it has too many positions or uses word break anchors
+     */
+    static ShiftAnd build(Program prog) {
+        List<Integer> positions = new ArrayList<>();
+
+        for (int pc = 0; pc < prog.size; pc++) {
+            if (prog.op[pc] == Program.CHAR)
+                positions.add(pc);
+            else if (prog.op[pc] == Program.ASSERT && prog.n[pc] != '^' && prog.n[pc] != '$')
+                return null;
+        }
+
+        if (positions.size() > MAX_POSITIONS)
+            return null;
+
+        return new ShiftAnd(prog, positions);
+    }
+
+    /**
+     * @return if text matches the Program (same start positions as Matcher)
+     */
+    boolean match(String text) {
+        int len = text.length();
+
+        if (empty)
+            return true;
+        if (len == 0)
+            return emptyAtEnd;
+
+        long[] masks = asciiMasks;
+        long[][] follow = this.follow;
+        long start = this.start;
+        long finals = this.finals;
+
+        long d = startAtZero & mask(text.charAt(0));
+
+        for (int i = 1; i < len && (d & finals) == 0; i++) {
+            char c = text.charAt(i);
+
+            long next = start;
+            long rest = d;
+            for (int k = 0; rest != 0; k++, rest >>>= 8) {
+                next |= follow[k][(int) rest & 0xff];
+            }
+
+            d = next & ((c < 128) ? masks[c] : slowMask(c));
+        }
+
+        return (d & finals) != 0 || (d & finalsAtEnd) != 0;
+    }
+
+    private long mask(char c) {
+        return (c < 128) ? asciiMasks[c] : slowMask(c);
+    }
+
+    private long slowMask(char c) {
+        long mask = 0;
+
+        for (int i = 0; i < classes.length; i++) {
+            if (classes[i].match(c))
+                mask |= 1L << i;
+        }
+
+        return mask;
+    }
+
+    // The positions, and if MATCH is reachable, from a pc without consuming a character.  Once a $ is passed only the
+    // end of the text can follow, so only MATCH counts after it (as matchAtEnd).
+    private static class Closure {
+        private final Program prog;
+        private final int[] index;
+
+        private final boolean[] seen;
+        private final boolean[] seenAtEnd;
+
+        long chars;
+        boolean match;
+        boolean matchAtEnd;
+
+        Closure(Program prog, int[] index) {
+            this.prog = prog;
+            this.index = index;
+            seen = new boolean[prog.size];
+            seenAtEnd = new boolean[prog.size];
+        }
+
+        void run(int pc, boolean atStart) {
+            Arrays.fill(seen, false);
+            Arrays.fill(seenAtEnd, false);
+            chars = 0;
+            match = false;
+            matchAtEnd = false;
+
+            visit(pc, atStart, false);
+        }
+
+        private void visit(int pc, boolean atStart, boolean atEnd) {
+            while (true) {
+                boolean[] visited = atEnd ? seenAtEnd : seen;
+                if (visited[pc])
+                    return;
+                visited[pc] = true;
+
+                switch (prog.op[pc]) {
+                    case Program.CHAR:
+                        if (!atEnd)
+                            chars |= 1L << index[pc];
+                        return;
+
+                    case Program.MATCH:
+                        if (atEnd)
+                            matchAtEnd = true;
+                        else
+                            match = true;
+                        return;
+
+                    case Program.JMP:
+                        pc = prog.x[pc];
+                        break;
+
+                    case Program.SPLIT:
+                    case Program.LOOP:
+                        visit(prog.x[pc], atStart, atEnd);
+                        pc = prog.y[pc];
+                        break;
+
+                    case Program.SAVE:
+                        pc++;
+                        break;
+
+                    case Program.ASSERT:
+                        if (prog.n[pc] == '^' && !atStart)
+                            return;
+                        if (prog.n[pc] == '$')
+                            atEnd = true;
+                        pc++;
+                        break;
+                }
+            }
+        }
+    }
+}
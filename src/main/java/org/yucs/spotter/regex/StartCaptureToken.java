@@ -1,5 +1,7 @@
 package org.yucs.spotter.regex;
 
+import java.util.List;
+
 class StartCaptureToken extends Token {
     final private Token t;
     final private int capture;
@@ -19,4 +21,52 @@ class StartCaptureToken extends Token {
 
         return t.match(m);
     }
+
+    @Override
+    Token reverse() throws RegexException {
+        t.reverse();
+
+        return super.reverse();
+    }
+
+    @Override
+    void compile(Compiler c) throws RegexException {
+        c.capture(capture, t);
+    }
+
+    @Override
+    boolean prefix(StringBuilder sb) {
+        return t.prefix(sb) && next.prefix(sb);
+    }
+
+    @Override
+    AhoCorasick literals() {
+        return t.literals();
+    }
+
+    @Override
+    boolean first(CharSet set) {
+        return t.first(set) && next.first(set);
+    }
+
+    @Override
+    boolean anchors(char anchor) {
+        return t.anchors(anchor) || next.anchors(anchor);
+    }
+
+    @Override
+    int minLength() {
+        return addMinLengths(t.minLength(), next.minLength());
+    }
+
+    @Override
+    int maxLength() {
+        return addLengths(t.maxLength(), next.maxLength());
+    }
+
+    @Override
+    void required(StringBuilder run, List<String> runs) {
+        t.required(run, runs);
+        next.required(run, runs);
+    }
 }
@@ -1,4 +1,6 @@
 package org.yucs.spotter.regex;
 
 interface TestableToken {
+    // Lowers the test of a conditional, which continues with then if it holds and with otherwise if it doesn't
+    void compileCondition(Compiler c, Token then, Token otherwise) throws RegexException;
 }
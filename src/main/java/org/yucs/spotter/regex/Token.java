@@ -1,5 +1,7 @@
 package org.yucs.spotter.regex;
 
+import java.util.List;
+
 abstract class Token {
     Token next = null;
 
@@ -28,7 +30,80 @@ abstract class Token {
         next = NullToken.Instance;
     }
 
+    // the capture group whose capture or token this token reads (ex: \1), -1 if none
     int captureGroup() {
         return -1;
     }
+
+    // Appends the literal characters that every match of this token and the ones following it begins with.
+    // Returns if all of them are literal characters, i.e. whether what comes after them continues the prefix.
+    boolean prefix(StringBuilder sb) {
+        return false;
+    }
+
+    // Appends the characters this token and the ones following it match when they are all literal characters (ex: an
+    // alternate of GET|POST), returns false if one of them isn't.
+    boolean literal(StringBuilder sb) {
+        return false;
+    }
+
+    // The literals one of which every match of this token and the ones following it starts with, null if there are
+    // none (see NormalExpressionToken)
+    AhoCorasick literals() {
+        return null;
+    }
+
+    // Adds the characters that a match of this token and the ones following it can start with.  Returns if they can
+    // all match the empty string, i.e. if the match can also start with what comes after them.
+    // Tokens that don't know which characters they start with add all of them.
+    boolean first(CharSet set) {
+        set.addAll();
+        return false;
+    }
+
+    // Collects the runs of literal characters that every match of this token and the ones following it contains.
+    // run holds the characters of the current run, which a token that isn't sure to match literal characters ends.
+    void required(StringBuilder run, List<String> runs) {
+        endRun(run, runs);
+        next.required(run, runs);
+    }
+
+    static void endRun(StringBuilder run, List<String> runs) {
+        if (run.length() > 0) {
+            runs.add(run.toString());
+            run.setLength(0);
+        }
+    }
+
+    // Does every match of this token and the ones following it go through the anchor?  (ex: a match through ^ starts
+    // at 0, whatever came before it matched the empty string)
+    boolean anchors(char anchor) {
+        return next.anchors(anchor);
+    }
+
+    // The shortest text a match of this token and the ones following it can consume, 0 if the token doesn't know it
+    int minLength() {
+        return 0;
+    }
+
+    // The longest text a match of this token and the ones following it can consume, -1 if there's no limit (or the
+    // token doesn't know it)
+    int maxLength() {
+        return -1;
+    }
+
+    static int addLengths(int a, int b) {
+        return (a == -1 || b == -1 || (long) a + b > Integer.MAX_VALUE) ? -1 : a + b;
+    }
+
+    // a minimum length that doesn't fit an int is as good as Integer.MAX_VALUE: no text is that long
+    static int addMinLengths(long a, long b) {
+        return (int) Math.min(a + b, Integer.MAX_VALUE);
+    }
+
+    // Lowers this token (not the tokens following it) into Program instructions.
+    // Tokens that can only be matched by backtracking keep this default and can't be compiled.
+    void compile(Compiler c) throws RegexException {
+        throw new RegexException(getClass().getSimpleName() + " can't be compiled into a Program");
+    }
 }
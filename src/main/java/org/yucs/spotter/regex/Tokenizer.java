@@ -6,12 +6,33 @@ class Tokenizer {
     private final String regex;
 
     int captureCount = 0;
+    int quantifierCount = 0;
     final Map<Integer, NormalExpressionToken> captureMap = new HashMap<>();
 
+    // the groups that back references, conditions and recursions refer to
+    final Set<Integer> referenced = new HashSet<>();
+
+    // the groups that StartCaptureTokens capture, null for all of them
+    private final Set<Integer> captured;
+
     private Token t = null;
 
     Tokenizer(String r) {
+        this(r, null);
+    }
+
+    private Tokenizer(String r, Set<Integer> captured) {
         regex = r;
+        this.captured = captured;
+    }
+
+    /**
+     * @return a Tokenizer for the same regex whose Tokens only capture the groups that other Tokens refer to, for
+     * the matches that don't need the groups (see Regex.match())
+     */
+    Tokenizer captureFree() throws RegexException {
+        tokenize();
+        return new Tokenizer(regex, referenced);
     }
 
     Token tokenize() throws RegexException {
@@ -50,13 +71,14 @@ class Tokenizer {
                     if (Character.isDigit(regex.charAt(regex_pos + 1))) {
                         regex_pos++;
                         int val = Character.digit(regex.charAt(regex_pos), 10);
-                        while (Character.isDigit(regex.charAt(regex_pos + 1))) {
+                        while (regex_pos + 1 < end && Character.isDigit(regex.charAt(regex_pos + 1))) {
                             regex_pos++;
                             val *= 10;
                             val += Character.digit(regex.charAt(regex_pos), 10);
                         }
 
                         t = new BackReferenceToken(val);
+                        referenced.add(val);
                         regex_pos++;
                     }
                 } else {
@@ -118,7 +140,8 @@ class Tokenizer {
                 } else { // normal capture
                     int capture = captureCount++;
                     t = createCapturedExpressionToken(capture, regex_pos + 1, endParen);
-                    t = new StartCaptureToken(capture, t);
+                    if (captured == null || captured.contains(capture))
+                        t = new StartCaptureToken(capture, t);
                 }
                 regex_pos = endParen + 1;
             }
@@ -135,7 +158,7 @@ class Tokenizer {
         // Determine if token is being quantified, and if so, wrap in the appropriate QuantifierToken
         QuantifierFactory qf = QuantifierFactory.parse(regex, regex_pos);
         if (qf != null) {
-            t = QuantifierFactory.genToken(qf, t);
+            t = QuantifierFactory.genToken(qf, t, quantifierCount++);
             regex_pos = qf.regex_pos;
         }
 
@@ -240,6 +263,7 @@ class Tokenizer {
                 throw new RegexException("createRecursiveToken: couldn't parse " + regex.substring(regex_pos, endParen) + " as int");
             }
         }
+        referenced.add(capture);
         return new RecursiveToken(capture);
     }
 
@@ -254,6 +278,7 @@ class Tokenizer {
         if (ifToken instanceof NormalExpressionToken) {
             captureCount--; // TODO: HACK as the tokenize on the () string above would have incremented
             ifToken = new CaptureGroupTesterToken(regex.substring(regex_pos+1, ifEndParen));
+            referenced.add(ifToken.captureGroup());
         }
 
         if (!(ifToken instanceof TestableToken)) {
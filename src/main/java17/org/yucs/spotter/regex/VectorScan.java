@@ -0,0 +1,80 @@
+package org.yucs.spotter.regex;
+
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// VectorScan is the Scan of the multi-release jar for Java 17 and later.  The text is copied a block at a time into a
+// char array (String.getChars() is a single copy), which is loaded into vectors of as many chars as the CPU compares
+// at once.  A vector's chars are compared with the first and last character of each range, and the first lane
+// inside one of them is the next position.  The rest of a block that doesn't fill a vector is looked at one char at
+// a time.
+// The first block is a few vectors long and each block after a miss is twice as long, up to BLOCK, so that a set
+// whose characters are dense in the text doesn't copy a whole block for each of them.
+
+final class VectorScan extends Scan {
+    private static final VectorSpecies<Short> SPECIES = ShortVector.SPECIES_PREFERRED;
+    private static final int BLOCK = 1024;
+    private static final int FIRST_BLOCK = 4 * SPECIES.length();
+
+    private static final ThreadLocal<char[]> blocks = ThreadLocal.withInitial(() -> new char[BLOCK]);
+
+    private final short[] first;
+    private final short[] last;
+
+    VectorScan(char[] ranges) {
+        first = new short[ranges.length / 2];
+        last = new short[ranges.length / 2];
+        for (int i = 0; i < first.length; i++) {
+            first[i] = (short) ranges[2 * i];
+            last[i] = (short) ranges[2 * i + 1];
+        }
+    }
+
+    @Override
+    int next(String text, int pos) {
+        int len = text.length();
+        char[] block = blocks.get();
+
+        for (int size = FIRST_BLOCK; pos < len; size = Math.min(2 * size, BLOCK)) {
+            int n = Math.min(size, len - pos);
+            text.getChars(pos, pos + n, block, 0);
+
+            int i = 0;
+            for (int bound = SPECIES.loopBound(n); i < bound; i += SPECIES.length()) {
+                ShortVector v = ShortVector.fromCharArray(SPECIES, block, i);
+                VectorMask<Short> in = inRange(v, 0);
+                for (int r = 1; r < first.length; r++) {
+                    in = in.or(inRange(v, r));
+                }
+
+                if (in.anyTrue())
+                    return pos + i + in.firstTrue();
+            }
+
+            for (; i < n; i++) {
+                if (contains(block[i]))
+                    return pos + i;
+            }
+
+            pos += n;
+        }
+
+        return len;
+    }
+
+    // chars are unsigned, as shorts they are compared unsigned
+    private VectorMask<Short> inRange(ShortVector v, int r) {
+        return v.compare(VectorOperators.UNSIGNED_GE, first[r]).and(v.compare(VectorOperators.UNSIGNED_LE, last[r]));
+    }
+
+    private boolean contains(char c) {
+        for (int r = 0; r < first.length; r++) {
+            if (c >= (char) first[r] && c <= (char) last[r])
+                return true;
+        }
+
+        return false;
+    }
+}
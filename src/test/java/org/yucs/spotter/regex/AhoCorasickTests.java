@@ -0,0 +1,135 @@
+package org.yucs.spotter.regex;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class AhoCorasickTests {
+    @Test
+    public void lengths() throws Exception {
+        AhoCorasick ac = new AhoCorasick(Arrays.asList("ab", "a", "abc", "b", "ab"));
+        assertArrayEquals(new int[] { 2, 1, 3 }, ac.lengths("abcd", 0));
+        assertArrayEquals(new int[] { 1 }, ac.lengths("abcd", 1));
+        assertArrayEquals(new int[0], ac.lengths("abcd", 2));
+        assertArrayEquals(new int[0], ac.lengths("abcd", 4));
+
+        assertArrayEquals(new int[] { 1, 0 }, new AhoCorasick(Arrays.asList("a", "")).lengths("a", 0));
+    }
+
+    @Test
+    public void next() throws Exception {
+        // bc ends first, but abcd starts first
+        assertEquals(1, new AhoCorasick(Arrays.asList("abcd", "bc")).next("xabcd", 0));
+
+        AhoCorasick ac = new AhoCorasick(Arrays.asList("he", "she", "his", "hers"));
+        assertEquals(1, ac.next("ushers", 0));
+        assertEquals(2, ac.next("ushers", 2));
+        assertEquals(-1, ac.next("ushers", 3));
+        assertEquals(-1, ac.next("", 0));
+
+        assertEquals(3, new AhoCorasick(Arrays.asList("x", "")).next("abc", 3));
+    }
+
+    @Test
+    public void sameAsIndexOf() throws Exception {
+        Random random = new Random(0);
+
+        for (int i = 0; i < 300; i++) {
+            List<String> literals = new ArrayList<>();
+            for (int j = 1 + random.nextInt(6); j > 0; j--) {
+                literals.add(text(random, 1 + random.nextInt(4)));
+            }
+            AhoCorasick ac = new AhoCorasick(literals);
+
+            String text = text(random, random.nextInt(20));
+            for (int pos = 0; pos <= text.length(); pos++) {
+                int expected = -1;
+                for (String literal : literals) {
+                    int index = text.indexOf(literal, pos);
+                    if (index != -1 && (expected == -1 || index < expected))
+                        expected = index;
+                }
+
+                assertEquals(literals + " " + text + " " + pos, expected, ac.next(text, pos));
+            }
+        }
+    }
+
+    private static String text(Random random, int length) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            sb.append((char) ('a' + random.nextInt(3)));
+        }
+        return sb.toString();
+    }
+
+    // the first alternate that lets the rest match wins, whether the alternates share a trie or not
+    @Test
+    public void alternationOrder() throws Exception {
+        String[] regexes = {
+                "(ab|a|abc)(c|bcd)",
+                "(a|ab|abc)(bcd|d)",
+                "(abc|ab|a)(c|bcd|d)",
+                "(a|ab|abc)(?=bcd|d)",
+                "(?<=x)(ab|a|abc)(c|bcd)",
+                "(GET|POST|GETS)\\b",
+        };
+        String[] texts = { "abcd", "xabcd", "xabccd", "GETS", "POST GET" };
+
+        for (String regex : regexes) {
+            java.util.regex.Pattern pattern = java.util.regex.Pattern.compile(regex);
+            Regex r = new Regex(regex);
+
+            for (String text : texts) {
+                java.util.regex.Matcher expected = pattern.matcher(text);
+                boolean found = expected.find();
+
+                Matcher m = r.Matcher();
+                Matcher tokens = new Matcher(new Tokenizer(regex));
+                assertEquals(regex + " " + text, found, m.match(text));
+                assertEquals(regex + " " + text, found, tokens.match(text));
+                assertEquals(regex + " " + text, found, r.match(text));
+
+                if (found) {
+                    for (int i = 0; i <= expected.groupCount(); i++) {
+                        assertEquals(regex + " " + text, expected.group(i), m.getGroup(i));
+                        assertEquals(regex + " " + text, expected.group(i), tokens.getGroup(i));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void blocklist() throws Exception {
+        Random random = new Random(0);
+        StringBuilder regex = new StringBuilder("\\b(");
+        for (int i = 0; i < 2000; i++) {
+            if (i > 0)
+                regex.append('|');
+            regex.append("w").append(text(random, 8));
+        }
+        regex.append(")\\b");
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            sb.append("v").append(text(random, 8)).append(' ');
+        }
+        String text = sb.toString();
+        String blocked = regex.substring(3, regex.indexOf("|"));
+
+        Regex r = new Regex(regex.toString());
+        Matcher tokens = new Matcher(new Tokenizer(regex.toString()));
+        assertFalse(r.match(text));
+        assertFalse(tokens.match(text));
+
+        assertTrue(r.Matcher().match(text + blocked));
+        assertTrue(tokens.match(text + blocked));
+        assertEquals(blocked, tokens.getGroup(1));
+    }
+}
@@ -0,0 +1,188 @@
+package org.yucs.spotter.regex;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class BacktrackerTests {
+    private static String repeat(char c, int n) {
+        char[] chars = new char[n];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    @Test
+    public void compiles() throws Exception {
+        assertNotNull(Compiler.compile(new Tokenizer("(\\w+)\\s\\1"), true));
+        assertNotNull(Compiler.compile(new Tokenizer("((a)|b)+\\2"), true));
+
+        assertNull(Compiler.compile(new Tokenizer("(\\w+)\\s\\1"), false));
+        assertNull(Compiler.compile(new Tokenizer("(a\\1)"), true));  // inside its own group
+        assertNull(Compiler.compile(new Tokenizer("(a)\\2"), true));  // no such group
+
+        assertNotNull(Compiler.compile(new Tokenizer("(?>bc|b)c"), true));
+        assertNotNull(Compiler.compile(new Tokenizer("a{2,4}+b*+"), true));
+        assertNull(Compiler.compile(new Tokenizer("(?>bc|b)c"), false));
+        assertNull(Compiler.compile(new Tokenizer("a*+"), false));
+    }
+
+    @Test
+    public void sameAsPikeVM() throws Exception {
+        String[][] tests = {
+                {"^(aef.)*aefbaefcaefd$", "aefaaef0aefbaefcaefd"},
+                {"^(abc|def|(hij*|kl*m)nop)qrs$", "hijjnopqrs"},
+                {"((a)|b)+", "xxabab"},
+                {"(a*?)(a*)", "aaa"},
+                {"\\b(\\w+)\\b", "  word  "},
+                {"^( *a*| [ab])*", " a "},
+                {"(a|ab)(c|bcd)(d*)", "abcd"},
+        };
+
+        for (String[] test : tests) {
+            Program program = Compiler.compile(new Tokenizer(test[0]));
+            int[] expected = new int[program.slotCount];
+            int[] slots = new int[program.slotCount];
+
+            assertTrue(test[0], new PikeVM(program).search(test[1], expected));
+            assertTrue(test[0], new Backtracker(program).search(test[1], slots, Backtracker.DEFAULT_MAX_MEMO));
+            assertArrayEquals(test[0], expected, slots);
+        }
+    }
+
+    @Test
+    public void backReferences() throws Exception {
+        Matcher m = new Regex("(\\w+)\\s\\1").Matcher();
+        assertTrue(m.match("it is is here"));
+        assertEquals(Arrays.asList("is is", "is"), m.getGroups());
+        assertFalse(m.match("it is here"));
+
+        // the group's last capture is used, a group that didn't capture doesn't match
+        m = new Regex("((a)|b)+\\2").Matcher();
+        assertTrue(m.match("abba"));
+        assertEquals(Arrays.asList("abba", "b", "a"), m.getGroups());
+        assertFalse(new Regex("((a)|b)+\\2").match("bb"));
+    }
+
+    @Test
+    public void exponential() throws Exception {
+        // without remembering the failed states this tries 2^n ways through (a|a)*
+        Regex r = new Regex("(a|a)*(c)\\2");
+        assertFalse(r.match(repeat('a', 10000)));
+        assertTrue(r.match(repeat('a', 10000) + "cc"));
+    }
+
+    @Test
+    public void memoSize() throws Exception {
+        Regex r = new Regex("(a+)b\\1");
+        r.setBacktrackMemoSize(0);
+        assertTrue(r.match("xaabaa"));
+        assertFalse(r.match("xaabxa"));
+    }
+
+    @Test(timeout = 10000)
+    public void startPositions() throws Exception {
+        // each start position in the word runs into the states the one before it tried, the memory doesn't hold the
+        // whole text, only a window from the start position on
+        String text = repeat('a', 300000) + "@example.org x@example.com";
+
+        Matcher m = new Regex("(?<!\\.)\\w+@example\\.com").Matcher();
+        assertTrue(m.match(text));
+        assertEquals("x@example.com", m.getGroup(0));
+
+        Regex r = new Regex("(?<!\\.)\\w+@example\\.com$");
+        r.setBacktrackMemoSize(1 << 12);
+        assertFalse(r.match(text + "."));
+    }
+
+    @Test
+    public void slowMatches() throws Exception {
+        // the look ahead needs the Backtracker, which can only count the slow matches
+        Regex r = new Regex("(a*)*(b|c)(?!d)");
+        assertFalse(r.match(repeat('a', 500)));
+        assertFalse(r.match(repeat('a', 500)));
+        assertEquals(2, r.getSlowMatchCount());
+        assertFalse(r.linearOnly);
+
+        r.setBacktrackStepsPerChar(Integer.MAX_VALUE);
+        assertTrue(r.match(repeat('a', 500) + "c"));
+        assertEquals(2, r.getSlowMatchCount());
+    }
+
+    @Test
+    public void atomic() throws Exception {
+        String[][] tests = {
+                {"(?>bc|b)c", "abcc"},
+                {"(?>bc|b)c", "abc"},
+                {"a(?>b*)b", "abbb"},
+                {"(?>(a+))(b)", "xaab"},
+                {"a*+a", "aaa"},
+                {"(a|b)*+c", "abbac"},
+                {"a{1,3}+a", "aaaa"},
+                {"a{1,3}+a", "aaa"},
+                {"(?>x|(a)+)+\\1", "aaxa"},
+        };
+
+        for (String[] test : tests) {
+            Matcher expected = new Matcher(new Tokenizer(test[0]));
+            Matcher m = new Regex(test[0]).Matcher();
+
+            assertEquals(test[0] + " " + test[1], expected.match(test[1]), m.match(test[1]));
+            assertEquals(test[0] + " " + test[1], expected.getGroups(), m.getGroups());
+        }
+    }
+
+    @Test
+    public void lookArounds() throws Exception {
+        assertNotNull(Compiler.compile(new Tokenizer("(?<=a)b(?!c)"), true));
+        assertNull(Compiler.compile(new Tokenizer("(?<=a)b(?!c)"), false));
+
+        Matcher m = new Regex("^(?=(ab))a").Matcher();
+        assertTrue(m.match("ab"));
+        assertEquals(Arrays.asList("a", "ab"), m.getGroups());
+
+        m = new Regex("(?<=(b))c").Matcher();
+        assertTrue(m.match("abc"));
+        assertEquals(Arrays.asList("c", "b"), m.getGroups());
+
+        m = new Regex("(?<!a)b(?!c)").Matcher();
+        assertTrue(m.match("abcbd"));
+        assertEquals(Arrays.asList("b"), m.getGroups());
+        assertFalse(m.match("ab"));
+
+        // the loop has to end on an empty iteration, also without the memory of tried states
+        Regex r = new Regex("((?<=b)[ab]*?.?)*a");
+        r.setBacktrackMemoSize(0);
+        assertTrue(r.match("ba"));
+    }
+
+    @Test
+    public void conditionals() throws Exception {
+        Regex r = new Regex("(?(?=a)a|b)c");
+        assertTrue(r.match("ac"));
+        assertTrue(r.match("bc"));
+        assertFalse(r.match("bd"));
+        assertFalse(r.match("ab"));
+
+        r = new Regex("(?(?<!x)a|b)");
+        assertTrue(r.match("a"));
+        assertTrue(r.match("xb"));
+        assertFalse(r.match("xa"));
+    }
+
+    @Test
+    public void longText() throws Exception {
+        // the Token graph nests java stack frames for every character
+        String text = repeat('a', 100000);
+
+        Regex r = new Regex("^(a+)\\1$");
+        r.setBacktrackMemoSize(0);
+        assertTrue(r.match(text));
+        assertFalse(new Regex("^(a+)b\\1$").match(text));
+
+        assertTrue(new Regex("^(?>a*)$").match(text));
+        assertFalse(new Regex("^(?>a*)a").match(text));
+        assertTrue(new Regex("^(a|b)*+$").match(text));
+    }
+}
@@ -0,0 +1,112 @@
+package org.yucs.spotter.regex;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BytecodeCompilerTests {
+    private static String repeat(char c, int n) {
+        char[] chars = new char[n];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    private static Program program(String regex) {
+        Tokenizer tokenizer = new Tokenizer(regex);
+        Program program = Compiler.compile(tokenizer);
+        return (program != null) ? program : Compiler.compile(tokenizer, true);
+    }
+
+    @Test
+    public void compiles() throws Exception {
+        assertTrue(new Regex("(\\w+)\\s\\1", Regex.COMPILE_TO_BYTECODE).isCompiledToBytecode());
+        assertTrue(new Regex("(?<=a)b(?!c)\\b", Regex.COMPILE_TO_BYTECODE).isCompiledToBytecode());
+        assertTrue(new Regex("(\\w{2,50})@\\1", Regex.COMPILE_TO_BYTECODE).isCompiledToBytecode());
+        assertFalse(new Regex("(\\w+)\\s\\1", 0).isCompiledToBytecode());
+
+        // the linear engines match it
+        assertFalse(new Regex("(\\w+)@(ab|c)", Regex.COMPILE_TO_BYTECODE).isCompiledToBytecode());
+
+        // too large for the JIT
+        String large = "(a)\\1" + repeat('b', 1000);
+        assertFalse(new Regex(large, Regex.COMPILE_TO_BYTECODE).isCompiledToBytecode());
+        try {
+            BytecodeCompiler.compile(program(large), large, true);
+            fail();
+        } catch (RegexException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void sameAsBacktracker() throws Exception {
+        String[] regexes = {
+                "^(abc|def|(hij*|kl*m)nop)qrs$",
+                "(a|ab)(c|bcd)(d*)",
+                "((a)|b)+\\2",
+                "(a*?)(a*)b?",
+                "(?>bc|b)c",
+                "(a|b)*+c",
+                "(?<=(b))c(?!a)",
+                "(?(?=a)ab|b.)c",
+                "\\b[^abc ]+\\B",
+                "([a-d]{2,30})x?\\1",
+        };
+        Random random = new Random(0);
+
+        for (String regex : regexes) {
+            Program program = program(regex);
+            Backtracker backtracker = new Backtracker(program);
+            PrecompiledRegex compiled = BytecodeCompiler.compile(program, regex, true);
+
+            for (int i = 0; i < 300; i++) {
+                StringBuilder sb = new StringBuilder();
+                for (int j = random.nextInt(12); j > 0; j--) {
+                    sb.append("aabcdx ".charAt(random.nextInt(7)));
+                }
+                String text = sb.toString();
+
+                int[] expected = new int[program.slotCount];
+                int[] slots = new int[program.slotCount];
+                int memo = (i % 2 == 0) ? Backtracker.DEFAULT_MAX_MEMO : 0;
+
+                assertEquals(regex + " " + text, backtracker.search(text, expected, memo),
+                        compiled.search(text, slots, memo));
+                assertArrayEquals(regex + " " + text, expected, slots);
+                assertEquals(regex + " " + text, backtracker.steps, compiled.steps);
+            }
+        }
+    }
+
+    @Test
+    public void slowMatches() throws Exception {
+        // the loop's register keeps its states from being remembered, each start position tries the whole text
+        Regex r = new Regex("(?!x)(a*)*(b|c)", Regex.COMPILE_TO_BYTECODE);
+        assertTrue(r.isCompiledToBytecode());
+        String text = repeat('a', 500);
+
+        Matcher m = r.Matcher();
+        assertFalse(m.match(text));
+        assertEquals(1, r.getSlowMatchCount());
+
+        // the first start matches right away
+        assertTrue(m.match(text + "c"));
+        assertEquals(1, r.getSlowMatchCount());
+        assertEquals(text + "c", m.getGroup(0));
+    }
+
+    @Test
+    public void groups() throws Exception {
+        Regex r = new Regex("(\\w+)\\s\\1", Regex.COMPILE_TO_BYTECODE);
+        assertTrue(r.isCompiledToBytecode());
+
+        Matcher m = r.Matcher();
+        assertTrue(m.match("it is is here"));
+        assertEquals("is is", m.getGroup(0));
+        assertEquals("is", m.getGroup(1));
+        assertFalse(m.match("it is here"));
+    }
+}
@@ -117,4 +117,62 @@ public class CharacterClassTests {
         c1 = new CharacterClass("\\)", 0, 1);
         assertTrue(c1.match(')'));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void unicodeRanges() throws Exception {
+        String s = "a-z\u0100-\uffff";
+        CharacterClass c1 = new CharacterClass(s, 0, s.length() - 1);
+        assertTrue(c1.match('q'));
+        assertTrue(c1.match('\u0100'));
+        assertTrue(c1.match('\uffff'));
+        assertFalse(c1.match('\u00ff'));
+        assertFalse(c1.match('A'));
+
+        // the same characters as a negated class
+        s = "^\u0000-`{-\u00ff";
+        CharacterClass c2 = new CharacterClass(s, 0, s.length() - 1);
+        assertEquals(c1, c2);
+        assertEquals(c1.hashCode(), c2.hashCode());
+
+        assertTrue(c1.intersects(new CharacterClass("^a-z", 0, 3)));
+        assertFalse(c1.intersects(new CharacterClass("A-Z", 0, 2)));
+        assertFalse(c2.matchesAll());
+    }
+
+    @Test
+    public void sameAsListedCharacters() throws Exception {
+        java.util.Random random = new java.util.Random(0);
+
+        for (int i = 0; i < 200; i++) {
+            StringBuilder sb = new StringBuilder(random.nextBoolean() ? "^" : "");
+            for (int j = 1 + random.nextInt(4); j > 0; j--) {
+                char first = (char) (random.nextBoolean() ? 'a' + random.nextInt(26) : 0x100 + random.nextInt(0x200));
+                sb.append(first);
+                if (random.nextBoolean())
+                    sb.append('-').append((char) (first + 1 + random.nextInt(30)));
+            }
+            String s = sb.toString();
+            java.util.regex.Pattern pattern = java.util.regex.Pattern.compile("[" + s + "]");
+            CharacterClass cls = new CharacterClass(s, 0, s.length() - 1);
+
+            for (char c = 0; c < 0x400; c++) {
+                assertEquals(s + " " + (int) c, pattern.matcher(String.valueOf(c)).matches(), cls.match(c));
+            }
+        }
+    }
+
+    @Test
+    public void interned() throws Exception {
+        CharacterClass c1 = CharacterClassFactory.getCharacterClass("x\\d+", 1).c;
+        CharacterClass c2 = CharacterClassFactory.getCharacterClass("[0-9]{4}", 0).c;
+        assertSame(c1, c2);
+
+        assertSame(CharacterClass.of('a'), CharacterClassFactory.getCharacterClass("a", 0).c);
+        assertSame(CharacterClass.of('a'), CharacterClassFactory.getCharacterClass("[a]", 0).c);
+        assertNotSame(c1, CharacterClassFactory.getCharacterClass("\\D", 0).c);
+
+        CharSet first = Prefilter.firstChars(new Tokenizer("[a-z]+@").tokenize());
+        assertSame(CharacterClassFactory.getCharacterClass("[a-z]", 0).c,
+                   CharacterClass.of(first.ranges()));
+    }
+}
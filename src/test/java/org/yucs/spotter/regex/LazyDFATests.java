@@ -0,0 +1,95 @@
+package org.yucs.spotter.regex;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LazyDFATests {
+    private static LazyDFA dfa(String regex, int cacheSize) {
+        return new LazyDFA(Compiler.compile(new Tokenizer(regex)), cacheSize);
+    }
+
+    @Test
+    public void match() throws Exception {
+        LazyDFA d = dfa("\\d+\\.\\d+ms", LazyDFA.DEFAULT_CACHE_SIZE);
+        assertEquals(LazyDFA.MATCH, d.match("took 12.5ms to run"));
+        assertEquals(LazyDFA.NO_MATCH, d.match("took 12ms to run"));
+        assertEquals(LazyDFA.NO_MATCH, d.match(""));
+    }
+
+    @Test
+    public void anchors() throws Exception {
+        assertEquals(LazyDFA.MATCH, dfa("^\\d*$", LazyDFA.DEFAULT_CACHE_SIZE).match(""));
+        assertEquals(LazyDFA.NO_MATCH, dfa("^\\d*$", LazyDFA.DEFAULT_CACHE_SIZE).match("12a3"));
+        assertEquals(LazyDFA.MATCH, dfa("\\d$", LazyDFA.DEFAULT_CACHE_SIZE).match("abc3"));
+
+        // like Matcher, the position after the last character isn't tried as a start
+        assertEquals(LazyDFA.NO_MATCH, dfa("$", LazyDFA.DEFAULT_CACHE_SIZE).match("abc"));
+        assertEquals(LazyDFA.MATCH, dfa("$", LazyDFA.DEFAULT_CACHE_SIZE).match(""));
+    }
+
+    @Test
+    public void wordBreaks() throws Exception {
+        LazyDFA d = dfa("\\babc\\b", LazyDFA.DEFAULT_CACHE_SIZE);
+        assertEquals(LazyDFA.MATCH, d.match("abc"));
+        assertEquals(LazyDFA.MATCH, d.match("xy abc z"));
+        assertEquals(LazyDFA.NO_MATCH, d.match("xyabc z"));
+        assertEquals(LazyDFA.NO_MATCH, d.match("xy abcz"));
+
+        d = dfa("abc\\B", LazyDFA.DEFAULT_CACHE_SIZE);
+        assertEquals(LazyDFA.NO_MATCH, d.match("abc ab"));
+        assertEquals(LazyDFA.MATCH, d.match("abcd"));
+    }
+
+    @Test
+    public void span() throws Exception {
+        String[][] tests = {
+                // regex, text, match
+                {"\\b(\\w+)@(\\w+)\\.com", "mail bob@example.com or al@x.com", "bob@example.com"},
+                {"a|ab", "xxab", "a"},
+                {"(a|ab)(c|bcd)", "abcd", "abcd"},
+                {"a*?", "aaa", ""},
+                {"^ab", "abab", "ab"},
+                {"ab$", "abab", "ab"},
+                {"\\bb\\w*", "ab bc", "bc"},
+        };
+
+        for (String[] test : tests) {
+            LazyDFA forward = dfa(test[0], LazyDFA.DEFAULT_CACHE_SIZE);
+            LazyDFA reverse = new LazyDFA(Compiler.compileReverse(test[0]), LazyDFA.DEFAULT_CACHE_SIZE, true, true, true);
+
+            int end = forward.searchEnd(test[1]);
+            assertTrue(test[0], end >= 0);
+            int start = reverse.searchStart(test[1], end);
+            assertTrue(test[0], start >= 0);
+
+            assertEquals(test[0], test[2], test[1].substring(start, end));
+        }
+
+        assertEquals(LazyDFA.NO_MATCH, dfa("ab$", LazyDFA.DEFAULT_CACHE_SIZE).searchEnd("aba"));
+    }
+
+    @Test
+    public void thrashing() throws Exception {
+        // (a|b)*a(a|b){12} needs a state per combination of the last 13 characters
+        StringBuilder sb = new StringBuilder();
+        Random random = new Random(0);
+        for (int i = 0; i < 20000; i++) {
+            sb.append(random.nextBoolean() ? 'a' : 'b');
+        }
+        sb.append("a");
+        for (int i = 0; i < 12; i++) {
+            sb.append('b');
+        }
+        String regex = "^(a|b)*a(a|b){12}$";
+
+        assertEquals(LazyDFA.GAVE_UP, dfa(regex, 4096).match(sb.toString()));
+
+        Regex r = new Regex(regex);
+        r.setDFACacheSize(4096);
+        assertTrue(r.match(sb.toString()));
+        assertFalse(r.match(sb.append('c').toString()));
+    }
+}
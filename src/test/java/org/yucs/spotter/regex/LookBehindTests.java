@@ -48,4 +48,11 @@ public class LookBehindTests {
         assertEquals("de", m.getGroup(0));
         assertEquals("de", m.getGroup(1));
     }
+
+    @Test
+    public void lookBehindQuantifiedGroup() throws Exception {
+        Regex r = new Regex("(?<=x(ab)+)c");
+        assertTrue(r.match("xababc"));
+        assertFalse(r.match("xbabac"));
+    }
 }
@@ -0,0 +1,61 @@
+package org.yucs.spotter.regex;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class OnePassTests {
+    private static OnePass onePass(String regex) {
+        return OnePass.build(Compiler.compile(new Tokenizer(regex)));
+    }
+
+    @Test
+    public void builds() throws Exception {
+        assertNotNull(onePass("^(\\d+)-(\\w+)$"));
+        assertNotNull(onePass("^(a|b)*c"));
+        assertNotNull(onePass("^a+?"));
+        assertNotNull(onePass("^(ab|ac)"));      // literal alternates share their prefix
+
+        assertNull(onePass("(\\d+)-(\\w+)$"));   // not anchored
+        assertNull(onePass("^(\\w+)(\\d+)$"));   // \w and \d overlap
+        assertNull(onePass("^(ab|a\\w)"));
+        assertNull(onePass("^(a*)*b"));          // the group can match the empty string
+        assertNull(onePass("^\\bword"));
+    }
+
+    @Test
+    public void intersects() throws Exception {
+        assertTrue(new CharacterClass("a-c", 0, 2).intersects(new CharacterClass("c-e", 0, 2)));
+        assertFalse(new CharacterClass("a-c", 0, 2).intersects(new CharacterClass("d-f", 0, 2)));
+        assertFalse(new CharacterClass("\\d", 0, 1).intersects(new CharacterClass("^\\d", 0, 2)));
+        assertTrue(new CharacterClass("^a", 0, 1).intersects(new CharacterClass("^b", 0, 1)));
+        assertTrue(CharacterClass.global.intersects(new CharacterClass("a", 0, 0)));
+    }
+
+    @Test
+    public void groups() throws Exception {
+        Matcher m = new Regex("^(\\d+)-(\\w+)$").Matcher();
+        assertTrue(m.match("123-abc"));
+        assertEquals(Arrays.asList("123-abc", "123", "abc"), m.getGroups());
+        assertFalse(m.match("123-abc!"));
+        assertFalse(m.match("x123-abc"));
+
+        // a greedy loop is preferred to the match, the match is kept in case the loop fails
+        m = new Regex("^(a|b)*(c)?").Matcher();
+        assertTrue(m.match("abax"));
+        assertEquals(Arrays.asList("aba", "a", null), m.getGroups());
+        assertTrue(m.match("abc"));
+        assertEquals(Arrays.asList("abc", "b", "c"), m.getGroups());
+
+        m = new Regex("^(a+?)").Matcher();
+        assertTrue(m.match("aaa"));
+        assertEquals(Arrays.asList("a", "a"), m.getGroups());
+
+        m = new Regex("^(x$|y)").Matcher();
+        assertTrue(m.match("x"));
+        assertFalse(m.match("xy"));
+        assertTrue(m.match("yx"));
+    }
+}
@@ -0,0 +1,86 @@
+package org.yucs.spotter.regex;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class PikeVMTests {
+    private static String repeat(char c, int n) {
+        char[] chars = new char[n];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    // matches with the Token graph, bypassing the Program
+    private static Matcher backtrack(String regex, String text) throws Exception {
+        Tokenizer tokenizer = new Tokenizer(regex);
+        tokenizer.tokenize();
+        Matcher m = new Matcher(tokenizer);
+        m.match(text);
+        return m;
+    }
+
+    @Test
+    public void compiles() throws Exception {
+        assertNotNull(Compiler.compile(new Tokenizer("^(\\d+)-(\\w+)$")));
+        assertNotNull(Compiler.compile(new Tokenizer("(a|b)*?c{2,5}\\b")));
+
+        assertNull(Compiler.compile(new Tokenizer("(a)\\1")));
+        assertNull(Compiler.compile(new Tokenizer("(?=a)a")));
+        assertNull(Compiler.compile(new Tokenizer("(?<=a)b")));
+        assertNull(Compiler.compile(new Tokenizer("a(?R)?z")));
+        assertNull(Compiler.compile(new Tokenizer("a(?>bc|b)c")));
+        assertNull(Compiler.compile(new Tokenizer("a*+b")));
+    }
+
+    @Test
+    public void longText() throws Exception {
+        Regex r = new Regex("^a*$");
+        assertTrue(r.match(repeat('a', 100000)));
+
+        r = new Regex("(a|a)*b");
+        assertFalse(r.match(repeat('a', 100000)));
+    }
+
+    @Test
+    public void sameGroups() throws Exception {
+        String[][] tests = {
+                {"^(aef.)*aefbaefcaefd$", "aefaaef0aefbaefcaefd"},
+                {"^(aef.)*?aefbaefcaefd$", "aefaaefbaefcaefd"},
+                {"^(abc|def|(hij*|kl*m)nop)qrs$", "hijjnopqrs"},
+                {"(\\d+)\\.(\\d*)ms", "took 12.5ms"},
+                {"((a)|b)+", "xxabab"},
+                {"(a*?)(a*)", "aaa"},
+                {"(a{2,3})(a{1,2}?)", "aaaaa"},
+                {"\\b(\\w+)\\b", "  word  "},
+                {"^( *a*| [ab])*", " a "},
+                {"(a|ab)(c|bcd)(d*)", "abcd"},
+        };
+
+        for (String[] test : tests) {
+            Matcher m = new Regex(test[0]).Matcher();
+
+            assertTrue(m.match(test[1]));
+            assertEquals(test[0], backtrack(test[0], test[1]).getGroups(), m.getGroups());
+        }
+    }
+
+    @Test
+    public void emptyIteration() throws Exception {
+        // the second iteration of the group matches the empty string, which ends the quantifier
+        Matcher m = new Regex("^( *a*| [ab])*").Matcher();
+        assertTrue(m.match(" b"));
+        assertEquals(" ", m.getGroup(0));
+        assertEquals("", m.getGroup(1));
+    }
+
+    @Test
+    public void noMatch() throws Exception {
+        Matcher m = new Regex("(a)(b)").Matcher();
+        assertFalse(m.match("acb"));
+        assertNull(m.getGroup(0));
+        assertNull(m.getGroup(2));
+    }
+}
@@ -2,7 +2,10 @@ package org.yucs.spotter.regex;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 
 import static org.junit.Assert.*;
 
@@ -236,6 +239,336 @@ public class RegexTests {
         assertEquals("abc", groups.get(2));
     }
 
+    @Test
+    public void literalPrefix() throws Exception {
+        assertEquals("ERROR: ", prefix("ERROR: (\\w+)"));
+        assertEquals("ERROR: ", prefix("(ERROR): (\\w+)"));
+        assertEquals("ab", prefix("(a(b))c*"));
+        assertEquals("", prefix("(ERROR|WARN): "));
+        assertEquals("", prefix("^ERROR"));
+        assertEquals("", prefix("E?RROR"));
+
+        String[] regexes = { "ERROR: (\\w+)", "(ERROR): (\\w+)\\s\\1", "ERROR: (\\w+)(?=;)", "(ERROR: )(?R)?" };
+        for (String regex : regexes) {
+            Matcher m = new Regex(regex).Matcher();
+            assertFalse(m.match("ERROR ERROR:"));
+            assertNull(m.getGroup(1));
+            assertTrue(m.match("ERROR ERROR: ERROR ERROR: x;"));
+            assertEquals("ERROR", m.getGroup(0).substring(0, 5));
+        }
+    }
+
+    @Test
+    public void requiredLiteral() throws Exception {
+        assertEquals("ms timeout=", required("\\d+\\.\\d+ms timeout=(\\w+)"));
+        assertEquals("xabcd", required("x(ab(c))d+y*"));
+        assertEquals("timeout", required("\\btimeout\\b"));
+        assertEquals("ab", required("(ab){2}c?"));
+        assertEquals("ms", required("(?=timeout)\\d+ms"));
+        assertEquals("", required("a?(bc|de)*"));
+
+        String[] regexes = { "\\d+\\.\\d+ms timeout=(\\w+)", "(\\d+)ms timeout=(\\w+)(?=;)", "(\\w+) timeout=\\1",
+                "(\\w+) timeout=(?R)?" };
+        for (String regex : regexes) {
+            Matcher m = new Regex(regex).Matcher();
+            assertFalse(m.match("12ms ok=1 timeout"));
+            assertNull(m.getGroup(1));
+            assertTrue(m.match("1.12ms timeout=timeout; 12ms timeout=12ms;"));
+            assertTrue(m.getGroup(0).contains(" timeout="));
+        }
+    }
+
+    @Test
+    public void firstChars() throws Exception {
+        CharSet first = Prefilter.firstChars(new Tokenizer("(a|b?c)*(\\d+|\\bx)").tokenize());
+        assertNotNull(first);
+        assertArrayEquals(new char[] { '0', '9', 'a', 'c', 'x', 'x' }, first.ranges());
+
+        assertNull(Prefilter.firstChars(new Tokenizer("a*b?").tokenize()));
+        assertNull(Prefilter.firstChars(new Tokenizer("(?=a)a").tokenize()));
+
+        CharSet negated = Prefilter.firstChars(new Tokenizer("[^a]b").tokenize());
+        assertFalse(negated.contains('a'));
+        assertTrue(negated.contains('b'));
+        assertArrayEquals(new char[] { 0, '`', 'b', Character.MAX_VALUE }, negated.ranges());
+
+        CharSet merged = Prefilter.firstChars(new Tokenizer("([d-k]|[a-f]|[l-m]|\\d|[A-Z])x").tokenize());
+        assertArrayEquals(new char[] { '0', '9', 'A', 'Z', 'a', 'm' }, merged.ranges());
+
+        String[] regexes = { "(\\d+)(ms|s)", "(\\d+)\\s\\1", "(\\d+)(?=ms)", "(\\d+)|(\\d+)(?R)" };
+        for (String regex : regexes) {
+            Matcher m = new Regex(regex).Matcher();
+            assertFalse(m.match("no digits here"));
+            assertNull(m.getGroup(1));
+            assertTrue(m.match("took 12ms 12 12"));
+            assertEquals("12", m.getGroup(1));
+        }
+    }
+
+    @Test
+    public void anchors() throws Exception {
+        assertTrue(new Prefilter(new Tokenizer("^a|^b").tokenize()).startAnchored);
+        assertFalse(new Prefilter(new Tokenizer("^a|b").tokenize()).startAnchored);
+
+        Prefilter end = new Prefilter(new Tokenizer("(ab|c)\\d{1,3}$").tokenize());
+        assertTrue(end.endAnchored);
+        assertEquals(5, end.maxLength);
+        assertEquals(-1, new Prefilter(new Tokenizer("a+$").tokenize()).maxLength);
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append("x1 ");
+        }
+        String text = sb.toString();
+
+        String[] regexes = { "^x\\d", "(\\d) $", "(\\w)\\d\\s$", "(?<=x)(\\d)(?= $)", "^(x)\\d|(x)\\d $" };
+        for (String regex : regexes) {
+            assertTrue(regex, new Regex(regex).match(text));
+            Matcher m = new Regex(regex).Matcher();
+            assertTrue(regex, m.match(text));
+            assertFalse(regex, m.match("y" + text + "y"));
+            assertFalse(regex, new Matcher(new Tokenizer(regex)).match("y" + text + "y"));
+        }
+    }
+
+    @Test
+    public void lengths() throws Exception {
+        assertEquals(3, new Tokenizer("(ab|c)\\d{2,}(?=x)").tokenize().minLength());
+        assertEquals(0, new Tokenizer("(a|b*)(?<=c)").tokenize().minLength());
+        assertEquals(2, new Tokenizer("(\\w)\\1.").tokenize().minLength());
+        assertEquals(Integer.MAX_VALUE, new Tokenizer("(a{65535}){65535}").tokenize().minLength());
+
+        String[] regexes = { "(\\d{3})-\\d{4}", "(\\d{3})-(?=\\d{4})\\1", "(?<=\\d{3}-)(\\d{4})" };
+        for (String regex : regexes) {
+            Matcher m = new Regex(regex).Matcher();
+            assertFalse(regex, m.match("555-12"));
+            assertNull(regex, m.getGroup(1));
+            assertFalse(regex, m.match(""));
+        }
+
+        Matcher m = new Regex("(?<=ab)(c)|(?<!ab)(d)").Matcher();
+        assertTrue(m.match("d"));
+        assertEquals("d", m.getGroup(2));
+        assertTrue(m.match("abc"));
+        assertEquals("c", m.getGroup(1));
+    }
+
+    @Test
+    public void captureFree() throws Exception {
+        // only the group the back reference reads is still saved (with the whole match's slots)
+        Program p = Compiler.compile(new Tokenizer("(a)(b)(c)\\2").captureFree(), true);
+        int saves = 0;
+        for (int pc = 0; pc < p.size; pc++) {
+            if (p.op[pc] == Program.SAVE)
+                saves++;
+        }
+        assertEquals(4, saves);
+
+        String[][] tests = {
+                {"(a)(b)(c)\\2", "abcb", "abcc"},
+                {"(\\w+)@(\\w+)(?<!x)\\.com", "me@example.com", "me@x.com"},
+                {"(?>(a+))b\\1", "aaba", "xaby"},
+                {"(a|b(?1)?c)(d)", "bbacd", "bbcd"},
+        };
+
+        for (String[] test : tests) {
+            Regex r = new Regex(test[0]);
+            Matcher m = r.Matcher();
+            assertTrue(test[0], r.match(test[1]));
+            assertTrue(test[0], m.match(test[1]));
+            assertEquals(test[0], m.match(test[2]), r.match(test[2]));
+        }
+    }
+
+    @Test
+    public void offsets() throws Exception {
+        // the Program engines, the Token graph (for recursion) and a back reference in a look behind
+        String[] regexes = { "(\\w+)@(\\w+)(x)?\\.com", "(a|b(?1)?c)(d)", "(a)(?<=a\\1)" };
+        String[] texts = { "to me@example.com", "bbacd", "baa" };
+        int[][] expected = { { 3, 17, 3, 5, 6, 13, -1, -1 }, { 1, 5, 1, 4, 4, 5 }, { 2, 3, 2, 3 } };
+
+        for (int i = 0; i < regexes.length; i++) {
+            Matcher m = new Regex(regexes[i]).Matcher();
+            assertTrue(regexes[i], m.match(texts[i]));
+
+            int[] offsets = new int[expected[i].length];
+            assertEquals(expected[i].length / 2, m.getOffsets(offsets));
+            assertArrayEquals(regexes[i], expected[i], offsets);
+
+            for (int j = 0; j < offsets.length / 2; j++) {
+                String group = (offsets[2 * j] == -1) ? null : texts[i].substring(offsets[2 * j], offsets[2 * j + 1]);
+                assertEquals(group, m.getGroup(j));
+            }
+        }
+    }
+
+    @Test(expected = RegexException.class)
+    public void offsetsTooShort() throws Exception {
+        Matcher m = new Regex("(a)(b)").Matcher();
+        assertTrue(m.match("ab"));
+        m.getOffsets(new int[4]);
+    }
+
+    // the Token graph counts the iterations of a quantifier instead of making a token for each of them
+    @Test
+    public void countedRepeats() throws Exception {
+        StringBuilder digits = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            digits.append(i % 10);
+        }
+
+        String[][] tests = {
+                {"^\\d{1000}$", digits.toString()},
+                {"^\\d{1000}$", digits.substring(1)},
+                {"((a){2}b){3}", "xaabaabaabb"},
+                {"(a{2,3}?)+b", "aaaaab"},
+                {"(ab|a){2,}+c", "abaabc"},
+                {"(b(a{1,2}c)?){2,3}d", "babacbaacd"},
+                {"^(.+c(b\\1)+?|a|[ab]+a|c(b[ab]){1,3}(.)|.{2}){1,3}$|^ab|\\3*", "abaaacaab"},
+        };
+
+        for (String[] test : tests) {
+            java.util.regex.Matcher expected = java.util.regex.Pattern.compile(test[0]).matcher(test[1]);
+            boolean found = expected.find();
+
+            Matcher tokens = new Matcher(new Tokenizer(test[0]));
+            assertEquals(test[0], found, tokens.match(test[1]));
+            for (int i = 0; found && i <= expected.groupCount(); i++) {
+                assertEquals(test[0], expected.group(i), tokens.getGroup(i));
+            }
+        }
+    }
+
+    // Repeats whose copies don't fit in a Program are run by the Backtracker, which counts their iterations, instead
+    // of the Token graph, which overflowed the java stack
+    @Test
+    public void largeCounts() throws Exception {
+        String a = repeat("a", 60000);
+        String ab = repeat("ab", 15000);
+
+        Regex r = new Regex("(a){60000}");
+        assertNull(r.program);
+        assertTrue(r.backtrackProgram.size < 20);
+
+        Matcher m = r.Matcher();
+        assertTrue(m.match("x" + a));
+        assertEquals(a, m.getGroup(0));
+        assertEquals("a", m.getGroup(1));
+        assertFalse(m.match(a.substring(1)));
+
+        m = new Regex("(a|b){30000}").Matcher();
+        assertTrue(m.match(ab + "a"));
+        assertEquals(ab, m.getGroup(0));
+        assertEquals("b", m.getGroup(1));
+
+        m = new Regex("x(a|b){2,30000}?(c)").Matcher();
+        assertTrue(m.match("x" + ab + "c"));
+        assertEquals(ab.length() + 2, m.getGroup(0).length());
+        assertEquals("b", m.getGroup(1));
+        assertFalse(m.match("x" + ab + "ac"));
+
+        assertTrue(new Regex("^(a?){60000}b$").match("aaab"));
+        assertTrue(new Regex("(a){60000,}").match(a));
+        assertFalse(new Regex("(a){60000,}").match(a.substring(1)));
+        assertTrue(new Regex("((a){40000}b){2}").match(a.substring(20000) + "b" + a.substring(20000) + "b"));
+    }
+
+    @Test(timeout = 10000)
+    public void nestedCounts() throws Exception {
+        String regex = "a";
+        for (int i = 0; i < 30; i++) {
+            regex = "(" + regex + "){1,2}";
+        }
+
+        Regex r = new Regex(regex);
+        assertNull(r.program);
+        assertTrue(r.backtrackProgram.size < Compiler.MAX_MEMOIZED_SIZE);
+        assertTrue(r.match("xaay"));
+        assertFalse(r.match("xy"));
+
+        String email = "\\w{2,50}@(\\w{1,20}\\.){1,5}com";
+        assertTrue(Compiler.compile(new Tokenizer(email), true).size < 100);
+
+        r = new Regex(email);
+        assertNotNull(r.program);
+        assertTrue(r.match("to: " + repeat("x", 60) + "@mail.example.com"));
+        assertFalse(r.match("to: x@mail.example.com"));
+    }
+
+    // one Regex matched from several threads at once, each thread with texts and a Matcher of its own
+    @Test(timeout = 60000)
+    public void concurrentMatches() throws Exception {
+        concurrently("(\\w+)@\\1\\.com");
+        concurrently("(a|b)*a(a|b){7}c\\b"); // \b keeps match() away from ShiftAnd
+    }
+
+    private static void concurrently(String regex) throws Exception {
+        final Regex r = new Regex(regex);
+        r.setDFACacheSize(1 << 15); // small enough for the DFAs to keep creating states
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] threads = new Thread[8];
+
+        for (int i = 0; i < threads.length; i++) {
+            // the texts and their matches, found by a Regex of the thread's own
+            Random random = new Random(i);
+            Matcher expected = new Regex(regex).Matcher();
+            final String[] texts = new String[100];
+            final String[] matches = new String[texts.length];
+            for (int j = 0; j < texts.length; j++) {
+                StringBuilder sb = new StringBuilder();
+                for (int k = random.nextInt(60); k >= 0; k--) {
+                    sb.append("ab@.c".charAt(random.nextInt(random.nextInt(3) == 0 ? 5 : 2)));
+                }
+                texts[j] = sb.append("c").toString();
+                matches[j] = expected.match(texts[j]) ? expected.getGroup(0) : null;
+            }
+
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        Matcher m = r.Matcher();
+                        for (int n = 0; n < 200; n++) {
+                            for (int j = 0; j < texts.length; j++) {
+                                assertEquals(texts[j], matches[j] != null, m.match(texts[j]));
+                                assertEquals(texts[j], matches[j], (matches[j] != null) ? m.getGroup(0) : null);
+                                assertEquals(texts[j], matches[j] != null, r.match(texts[j]));
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failures.add(e);
+                    }
+                }
+            };
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(Collections.emptyList(), failures);
+    }
+
+    private static String repeat(String s, int n) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            sb.append(s);
+        }
+
+        return sb.toString();
+    }
+
+    private static String required(String regex) throws RegexException {
+        return Prefilter.requiredLiteral(new Tokenizer(regex).tokenize());
+    }
+
+    private static String prefix(String regex) throws RegexException {
+        return Prefilter.literalPrefix(new Tokenizer(regex).tokenize());
+    }
+
     @Test
     public void broken() throws Exception {
         Regex r = new Regex("^(abc|abcdef)*$");
@@ -0,0 +1,62 @@
+package org.yucs.spotter.regex;
+
+import java.util.Random;
+
+// Times matching texts of 200K characters where the first characters of a match are rare (a few per text) and where
+// they are dense (every character can start one), with and without VectorScan:
+//
+//   mvn test-compile -Pjava17
+//   java -cp target/classes:target/test-classes org.yucs.spotter.regex.ScanBenchmark
+//   java --add-modules jdk.incubator.vector -cp target/classes/META-INF/versions/17:target/classes:target/test-classes \
+//       org.yucs.spotter.regex.ScanBenchmark
+//
+// It isn't a test (surefire doesn't run it), only a main.
+
+public class ScanBenchmark {
+    private static final int LENGTH = 200000;
+    private static final int WARMUP = 200; // the Vector API is only fast once the JIT compiled it
+    private static final int RUNS = 50;
+
+    public static void main(String[] args) throws Exception {
+        Random random = new Random(0);
+        System.out.println("VectorScan: " + Scan.available());
+
+        // only a through t, no character a match starts with
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < LENGTH; i++) {
+            sb.append((char) ('a' + random.nextInt(20)));
+        }
+        String rare = sb.toString();
+        time("rare", "[x-z]\\d+", rare);
+        time("rare", "[x-z]\\d+", rare + "x1");
+        time("rare", "(\\s|[u-z])\\d", rare);
+        time("rare", "([x-z])\\d\\1", rare);
+
+        // every character can start a match
+        sb.setLength(0);
+        for (int i = 0; i < LENGTH; i++) {
+            sb.append((char) ('a' + random.nextInt(26)));
+        }
+        String dense = sb.toString();
+        time("dense", "([a-z])\\d\\1", dense);
+        time("dense", "[a-z]\\d", dense);
+    }
+
+    private static void time(String name, String regex, String text) throws RegexException {
+        Matcher m = new Regex(regex).Matcher();
+
+        for (int i = 0; i < WARMUP; i++) {
+            m.match(text);
+        }
+
+        long best = Long.MAX_VALUE;
+        boolean found = false;
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            found = m.match(text);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+
+        System.out.printf("%-6s %-16s %-6s %8.3f ms%n", name, regex, found, best / 1e6);
+    }
+}
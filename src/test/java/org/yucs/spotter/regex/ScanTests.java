@@ -0,0 +1,52 @@
+package org.yucs.spotter.regex;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+// VectorScan is only used with the Java 17 classes and the Vector API module (mvn test -Pvector), otherwise these
+// check the bitmap
+public class ScanTests {
+    @Test
+    public void sameAsBitmap() throws Exception {
+        Random random = new Random(0);
+        String[] classes = { "a", "x-z", "^a-y", "\\d_", "aeiou", "\\w", "\\s" };
+
+        for (String cls : classes) {
+            CharSet set = new CharSet();
+            set.add(new CharacterClass(cls, 0, cls.length() - 1));
+
+            for (int i = 0; i < 50; i++) {
+                StringBuilder sb = new StringBuilder();
+                for (int j = random.nextInt(3000); j > 0; j--) {
+                    sb.append((char) ('a' + random.nextInt(25)));
+                }
+                if (random.nextBoolean())
+                    sb.insert(random.nextInt(sb.length() + 1), (char) ('z' - random.nextInt(5)));
+                String text = sb.toString();
+
+                for (int pos = 0; pos <= text.length(); pos += 1 + random.nextInt(100)) {
+                    int expected = pos;
+                    while (expected < text.length() && !set.contains(text.charAt(expected)))
+                        expected++;
+
+                    assertEquals(cls + " " + pos, expected, set.next(text, pos));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void tooManyRanges() throws Exception {
+        char[] ranges = new char[2 * (Scan.MAX_RANGES + 1)];
+        for (int i = 0; i < ranges.length; i++) {
+            ranges[i] = (char) ('a' + 2 * (i / 2));
+        }
+
+        assertNull(Scan.of(ranges));
+        assertNull(Scan.of(new char[0]));
+        assertEquals(Scan.available(), Scan.of(new char[] { 'a', 'z' }) != null);
+    }
+}
@@ -0,0 +1,68 @@
+package org.yucs.spotter.regex;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ShiftAndTests {
+    private static ShiftAnd shiftAnd(String regex) {
+        return ShiftAnd.build(Compiler.compile(new Tokenizer(regex)));
+    }
+
+    @Test
+    public void builds() throws Exception {
+        assertNotNull(shiftAnd("^a[bc]*d?e+f|xyz$"));
+        assertNotNull(shiftAnd("a{64}"));
+
+        assertNull(shiftAnd("a{65}"));
+        assertNull(shiftAnd("\\bword\\b"));
+    }
+
+    @Test
+    public void match() throws Exception {
+        ShiftAnd s = shiftAnd("\\d+\\.\\d+ms");
+        assertTrue(s.match("took 12.5ms to run"));
+        assertFalse(s.match("took 12ms to run"));
+        assertFalse(s.match(""));
+
+        assertTrue(shiftAnd("a{64}").match("b" + new String(new char[64]).replace('\0', 'a')));
+        assertTrue(shiftAnd("x?").match(""));
+        assertTrue(shiftAnd("caf\u00e9").match("un caf\u00e9"));
+    }
+
+    @Test
+    public void anchors() throws Exception {
+        assertTrue(shiftAnd("^\\d*$").match(""));
+        assertFalse(shiftAnd("^\\d*$").match("12a3"));
+        assertTrue(shiftAnd("^ab|cd$").match("abxx"));
+        assertTrue(shiftAnd("^ab|cd$").match("xxcd"));
+        assertFalse(shiftAnd("^ab|cd$").match("xabcdx"));
+
+        // like Matcher, the position after the last character isn't tried as a start
+        assertFalse(shiftAnd("$").match("abc"));
+    }
+
+    @Test
+    public void sameAsDFA() throws Exception {
+        String[] regexes = {"(ab|a)*b{2,3}$", "^(a|b)*a(a|b){3}", "a?b?c?(abc)+", "(a|ab)(c|bcd)d*"};
+        Random random = new Random(0);
+
+        for (String regex : regexes) {
+            Program program = Compiler.compile(new Tokenizer(regex));
+            ShiftAnd s = ShiftAnd.build(program);
+            LazyDFA dfa = new LazyDFA(program, LazyDFA.DEFAULT_CACHE_SIZE);
+
+            for (int i = 0; i < 1000; i++) {
+                StringBuilder sb = new StringBuilder();
+                for (int j = random.nextInt(12); j > 0; j--) {
+                    sb.append((char) ('a' + random.nextInt(4)));
+                }
+                String text = sb.toString();
+
+                assertEquals(regex + " " + text, dfa.match(text) == LazyDFA.MATCH, s.match(text));
+            }
+        }
+    }
+}